@@ -0,0 +1,771 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * A trigger regexp compiled into a non-backtracking automaton.
+ * <p>
+ * The regexp is run as a Pike VM: all the paths through the automaton advance together one
+ * character at a time, so matching takes time linear in the length of the message however
+ * many wildcards the trigger has. The paths are kept in the order {@link java.util.regex}
+ * would try them, so the match and its groups are the same as with a {@link java.util.regex.Pattern}.
+ * <p>
+ * Only the subset of the regexp syntax produced for triggers is supported, and only ASCII
+ * text can be matched (word boundaries for other characters depend on the Java version).
+ */
+public class Automaton {
+
+	// Instructions.
+	private static final int CONSUME = 0; // Consume a character of the set
+	private static final int SPLIT = 1;   // Try x first, then y
+	private static final int JUMP = 2;    // Go to x
+	private static final int SAVE = 3;    // Save the position to group slot x
+	private static final int ASSERT = 4;  // Check the zero-width assertion x
+	private static final int MATCH = 5;   // Found a match
+
+	// Zero-width assertions.
+	private static final int BEGIN = 0;        // ^
+	private static final int END = 1;          // $
+	private static final int BOUNDARY = 2;     // \b
+	private static final int NOT_BOUNDARY = 3; // \B
+
+	private int[] ops;
+	private int[] xs;
+	private int[] ys;
+	private long[][] sets;   // The 128 bit character set of each CONSUME instruction
+	private int groups;      // The number of capturing groups
+	private boolean anchored; // Whether the regexp starts with ^
+
+	private Automaton(Vector<int[]> program, Vector<long[]> sets, int groups) {
+		this.ops = new int[program.size()];
+		this.xs = new int[program.size()];
+		this.ys = new int[program.size()];
+		this.sets = new long[program.size()][];
+		for (int i = 0; i < program.size(); i++) {
+			ops[i] = program.get(i)[0];
+			xs[i] = program.get(i)[1];
+			ys[i] = program.get(i)[2];
+			this.sets[i] = sets.get(i);
+		}
+		this.groups = groups;
+		this.anchored = ops[0] == ASSERT && xs[0] == BEGIN;
+	}
+
+	/**
+	 * Compiles a regexp into an automaton, or returns {@code null} if it uses syntax the
+	 * automaton doesn't support.
+	 *
+	 * @param regexp The regexp.
+	 */
+	public static Automaton compile(String regexp) {
+		try {
+			Parser parser = new Parser(regexp);
+			Node node = parser.parse();
+
+			Compiler compiler = new Compiler();
+			compiler.emit(node);
+			compiler.add(MATCH, 0, 0, null);
+			return new Automaton(compiler.program, compiler.sets, parser.groups);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns whether the text can be matched by an automaton.
+	 *
+	 * @param text The text.
+	 */
+	public static boolean supports(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) > 127) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of capturing groups.
+	 */
+	public int groupCount() {
+		return groups;
+	}
+
+	/**
+	 * Finds the first match in the text, like {@link java.util.regex.Matcher#find()}, and
+	 * returns its capturing groups ({@code null} for the ones that didn't participate), or
+	 * returns {@code null} if there is no match.
+	 *
+	 * @param text The text, which must be {@link #supports(String) supported}.
+	 */
+	public String[] find(String text) {
+		int[] matched = null;
+		Threads current = new Threads(ops.length);
+		Threads next = new Threads(ops.length);
+
+		for (int i = 0; i <= text.length(); i++) {
+			// Start a new attempt here, after all the attempts that started earlier.
+			if (matched == null && (i == 0 || !anchored)) {
+				int[] slots = new int[groups * 2];
+				Arrays.fill(slots, -1);
+				add(current, 0, text, i, slots);
+			}
+			if (current.size == 0 && (matched != null || anchored)) {
+				break;
+			}
+
+			next.clear();
+			for (int t = 0; t < current.size; t++) {
+				int pc = current.pcs[t];
+				if (ops[pc] == MATCH) {
+					// The paths after this one have lower priority.
+					matched = current.slots[t];
+					break;
+				}
+				if (i < text.length() && contains(sets[pc], text.charAt(i))) {
+					add(next, pc + 1, text, i + 1, current.slots[t]);
+				}
+			}
+
+			Threads swap = current;
+			current = next;
+			next = swap;
+		}
+
+		if (matched == null) {
+			return null;
+		}
+		String[] result = new String[groups];
+		for (int g = 0; g < groups; g++) {
+			if (matched[g * 2] > -1 && matched[g * 2 + 1] > -1) {
+				result[g] = text.substring(matched[g * 2], matched[g * 2 + 1]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Adds a thread to the list, following its jumps, splits, saves and assertions.
+	 *
+	 * @param threads  The list of threads.
+	 * @param pc       The instruction the thread is at.
+	 * @param text     The text.
+	 * @param position The position in the text.
+	 * @param slots    The group slots of the thread.
+	 */
+	private void add(Threads threads, int pc, String text, int position, int[] slots) {
+		if (threads.seen[pc] == position + 1) {
+			// A path with higher priority already got here.
+			return;
+		}
+		threads.seen[pc] = position + 1;
+
+		switch (ops[pc]) {
+			case JUMP:
+				add(threads, xs[pc], text, position, slots);
+				break;
+			case SPLIT:
+				add(threads, xs[pc], text, position, slots);
+				add(threads, ys[pc], text, position, slots);
+				break;
+			case SAVE:
+				int[] copy = slots.clone();
+				copy[xs[pc]] = position;
+				add(threads, pc + 1, text, position, copy);
+				break;
+			case ASSERT:
+				if (assertion(xs[pc], text, position)) {
+					add(threads, pc + 1, text, position, slots);
+				}
+				break;
+			default:
+				threads.pcs[threads.size] = pc;
+				threads.slots[threads.size] = slots;
+				threads.size++;
+		}
+	}
+
+	/**
+	 * Checks a zero-width assertion the way {@link java.util.regex} does.
+	 *
+	 * @param assertion The assertion.
+	 * @param text      The text.
+	 * @param position  The position in the text.
+	 */
+	private static boolean assertion(int assertion, String text, int position) {
+		int length = text.length();
+		switch (assertion) {
+			case BEGIN:
+				return position == 0;
+			case END:
+				// The end, or before a line terminator at the end.
+				if (position == length) {
+					return true;
+				} else if (position == length - 1) {
+					char c = text.charAt(position);
+					return c == '\r' || (c == '\n' && (position == 0 || text.charAt(position - 1) != '\r'));
+				} else if (position == length - 2) {
+					return text.charAt(position) == '\r' && text.charAt(position + 1) == '\n';
+				}
+				return false;
+			default:
+				boolean left = position > 0 && isWord(text.charAt(position - 1));
+				boolean right = position < length && isWord(text.charAt(position));
+				return (left != right) == (assertion == BOUNDARY);
+		}
+	}
+
+	private static boolean isWord(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+
+	private static boolean contains(long[] set, char c) {
+		return c < 128 && (set[c >> 6] & (1L << (c & 63))) != 0;
+	}
+
+	/**
+	 * A list of threads at one position of the text, in priority order.
+	 */
+	private static class Threads {
+
+		private int size = 0;
+		private int[] pcs;
+		private int[][] slots;
+		private int[] seen; // The position + 1 at which each instruction was last added
+
+		private Threads(int length) {
+			this.pcs = new int[length];
+			this.slots = new int[length][];
+			this.seen = new int[length];
+		}
+
+		private void clear() {
+			size = 0;
+		}
+	}
+
+	/*-----------------------*/
+	/*-- Parsing the regexp --*/
+	/*-----------------------*/
+
+	// Node types.
+	private static final int CHARS = 0;     // One character of a set
+	private static final int ZERO = 1;      // A zero-width assertion
+	private static final int SEQUENCE = 2;  // Children in order
+	private static final int ALTERNATE = 3; // One of the children
+	private static final int GROUP = 4;     // A group around the child
+	private static final int REPEAT = 5;    // The child repeated
+
+	/**
+	 * A node of the parsed regexp.
+	 */
+	private static class Node {
+
+		private int type;
+		private long[] set;
+		private int assertion;
+		private Vector<Node> children = new Vector<>();
+		private int group = -1;    // The index of a capturing group (from 0), or -1
+		private int min;           // Minimum repeats
+		private boolean unbounded; // Whether the repeats are unbounded (or at most one)
+		private boolean greedy;
+
+		private Node(int type) {
+			this.type = type;
+		}
+
+		/**
+		 * Returns the minimum length of the text matched by the node.
+		 */
+		private int minLength() {
+			switch (type) {
+				case CHARS:
+					return 1;
+				case ZERO:
+					return 0;
+				case SEQUENCE:
+					int sum = 0;
+					for (Node child : children) {
+						sum += child.minLength();
+					}
+					return sum;
+				case ALTERNATE:
+					int min = Integer.MAX_VALUE;
+					for (Node child : children) {
+						min = Math.min(min, child.minLength());
+					}
+					return min;
+				case GROUP:
+					return children.get(0).minLength();
+				default:
+					return this.min * children.get(0).minLength();
+			}
+		}
+
+		/**
+		 * Returns whether the node only ever matches the empty string.
+		 */
+		private boolean zeroWidth() {
+			switch (type) {
+				case CHARS:
+					return false;
+				case ZERO:
+					return true;
+				default:
+					for (Node child : children) {
+						if (!child.zeroWidth()) {
+							return false;
+						}
+					}
+					return true;
+			}
+		}
+	}
+
+	/**
+	 * Parses the supported regexp syntax into nodes, throwing an {@link IllegalArgumentException}
+	 * for anything else.
+	 */
+	private static class Parser {
+
+		private String regexp;
+		private int position = 0;
+		private int groups = 0;
+
+		private Parser(String regexp) {
+			this.regexp = regexp;
+		}
+
+		private Node parse() {
+			Node node = alternation();
+			if (position < regexp.length()) {
+				throw new IllegalArgumentException("Unexpected " + regexp.charAt(position));
+			}
+			return node;
+		}
+
+		private Node alternation() {
+			Node node = new Node(ALTERNATE);
+			node.children.add(sequence());
+			while (position < regexp.length() && regexp.charAt(position) == '|') {
+				position++;
+				node.children.add(sequence());
+			}
+			return node.children.size() == 1 ? node.children.get(0) : node;
+		}
+
+		private Node sequence() {
+			Node node = new Node(SEQUENCE);
+			while (position < regexp.length() && regexp.charAt(position) != '|' && regexp.charAt(position) != ')') {
+				if (regexp.startsWith("\\Q", position)) {
+					// Quoted literal text.
+					int end = regexp.indexOf("\\E", position + 2);
+					end = end < 0 ? regexp.length() : end;
+					for (int i = position + 2; i < end; i++) {
+						node.children.add(chars(set(regexp.charAt(i))));
+					}
+					position = Math.min(end + 2, regexp.length());
+					continue;
+				}
+
+				Node atom = atom();
+				if (position < regexp.length() && "*+?".indexOf(regexp.charAt(position)) > -1) {
+					if (atom.type == ZERO) {
+						throw new IllegalArgumentException("Repeated assertion");
+					}
+					Node repeat = new Node(REPEAT);
+					char quantifier = regexp.charAt(position++);
+					repeat.min = quantifier == '+' ? 1 : 0;
+					repeat.unbounded = quantifier != '?';
+					repeat.greedy = true;
+					if (position < regexp.length() && regexp.charAt(position) == '?') {
+						repeat.greedy = false;
+						position++;
+					} else if (position < regexp.length() && regexp.charAt(position) == '+') {
+						throw new IllegalArgumentException("Possessive quantifier");
+					}
+					repeat.children.add(atom);
+					atom = repeat;
+				}
+				node.children.add(atom);
+			}
+			return node;
+		}
+
+		private Node atom() {
+			char c = regexp.charAt(position++);
+			switch (c) {
+				case '(':
+					Node group = new Node(GROUP);
+					if (regexp.startsWith("?:", position)) {
+						position += 2;
+					} else if (regexp.startsWith("?", position)) {
+						throw new IllegalArgumentException("Special group");
+					} else {
+						group.group = groups++;
+					}
+					group.children.add(alternation());
+					if (position >= regexp.length() || regexp.charAt(position) != ')') {
+						throw new IllegalArgumentException("Unclosed group");
+					}
+					position++;
+					return group;
+				case '[':
+					return chars(characterClass());
+				case '.':
+					long[] any = range((char) 0, (char) 127);
+					any[0] &= ~((1L << '\n') | (1L << '\r'));
+					return chars(any);
+				case '^':
+					return zero(BEGIN);
+				case '$':
+					return zero(END);
+				case '\\':
+					return escape();
+				case '*':
+				case '+':
+				case '?':
+				case '{':
+				case '}':
+				case ']':
+				case ')':
+					throw new IllegalArgumentException("Unexpected " + c);
+				default:
+					return chars(set(c));
+			}
+		}
+
+		private Node escape() {
+			if (position >= regexp.length()) {
+				throw new IllegalArgumentException("Trailing backslash");
+			}
+			char c = regexp.charAt(position++);
+			if (c == 'b') {
+				return zero(BOUNDARY);
+			} else if (c == 'B') {
+				return zero(NOT_BOUNDARY);
+			}
+			long[] set = shorthand(c);
+			if (set == null) {
+				throw new IllegalArgumentException("Unsupported escape \\" + c);
+			}
+			return chars(set);
+		}
+
+		private long[] characterClass() {
+			boolean negated = false;
+			if (position < regexp.length() && regexp.charAt(position) == '^') {
+				negated = true;
+				position++;
+			}
+
+			long[] set = new long[2];
+			boolean first = true;
+			while (true) {
+				if (position >= regexp.length()) {
+					throw new IllegalArgumentException("Unclosed character class");
+				}
+				char c = regexp.charAt(position++);
+				if (c == ']' && !first) {
+					break;
+				} else if (c == '[' || c == ']' || regexp.startsWith("&&", position - 1)) {
+					throw new IllegalArgumentException("Unsupported character class");
+				}
+				first = false;
+
+				if (c == '\\') {
+					if (position >= regexp.length()) {
+						throw new IllegalArgumentException("Trailing backslash");
+					}
+					long[] escaped = shorthand(regexp.charAt(position++));
+					if (escaped == null) {
+						throw new IllegalArgumentException("Unsupported escape in character class");
+					}
+					set[0] |= escaped[0];
+					set[1] |= escaped[1];
+				} else if (position + 1 < regexp.length() && regexp.charAt(position) == '-' && regexp.charAt(position + 1) != ']') {
+					char to = regexp.charAt(position + 1);
+					if (to == '\\' || to == '[' || to < c) {
+						throw new IllegalArgumentException("Unsupported range");
+					}
+					position += 2;
+					long[] range = range(c, (char) Math.min(to, 127));
+					set[0] |= range[0];
+					set[1] |= range[1];
+				} else {
+					long[] single = set(c);
+					set[0] |= single[0];
+					set[1] |= single[1];
+				}
+			}
+
+			if (negated) {
+				set[0] = ~set[0];
+				set[1] = ~set[1];
+			}
+			return set;
+		}
+
+		/**
+		 * Returns the set for an escaped character: a shorthand class like {@code \s} or an
+		 * escaped punctuation character, or {@code null} if it's not supported.
+		 */
+		private long[] shorthand(char c) {
+			long[] set;
+			switch (c) {
+				case 'd':
+				case 'D':
+					set = range('0', '9');
+					break;
+				case 's':
+				case 'S':
+					set = set(' ');
+					set[0] |= range('\t', '\r')[0];
+					break;
+				case 'w':
+				case 'W':
+					set = range('a', 'z');
+					set[1] |= range('A', 'Z')[1] | set('_')[1];
+					set[0] |= range('0', '9')[0];
+					break;
+				default:
+					if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c > 127) {
+						return null;
+					}
+					return set(c);
+			}
+			if (Character.isUpperCase(c)) {
+				set[0] = ~set[0];
+				set[1] = ~set[1];
+			}
+			return set;
+		}
+
+		private static Node chars(long[] set) {
+			Node node = new Node(CHARS);
+			node.set = set;
+			return node;
+		}
+
+		private static Node zero(int assertion) {
+			Node node = new Node(ZERO);
+			node.assertion = assertion;
+			return node;
+		}
+
+		private static long[] set(char c) {
+			long[] set = new long[2];
+			if (c < 128) {
+				set[c >> 6] |= 1L << (c & 63);
+			}
+			return set;
+		}
+
+		private static long[] range(char from, char to) {
+			long[] set = new long[2];
+			for (char c = from; c <= to && c < 128; c++) {
+				set[c >> 6] |= 1L << (c & 63);
+			}
+			return set;
+		}
+	}
+
+	/*-------------------------*/
+	/*-- Compiling the nodes --*/
+	/*-------------------------*/
+
+	/**
+	 * Compiles nodes into instructions, in the order {@link java.util.regex} tries the paths.
+	 */
+	private static class Compiler {
+
+		private Vector<int[]> program = new Vector<>();
+		private Vector<long[]> sets = new Vector<>();
+
+		private int add(int op, int x, int y, long[] set) {
+			program.add(new int[]{op, x, y});
+			sets.add(set);
+			return program.size() - 1;
+		}
+
+		private int next() {
+			return program.size();
+		}
+
+		private void patch(int pc, int x, int y) {
+			program.get(pc)[1] = x;
+			program.get(pc)[2] = y;
+		}
+
+		/**
+		 * Adds a split that prefers x when greedy, or y when lazy.
+		 */
+		private void split(int pc, int x, int y, boolean greedy) {
+			if (greedy) {
+				patch(pc, x, y);
+			} else {
+				patch(pc, y, x);
+			}
+		}
+
+		private void emit(Node node) {
+			switch (node.type) {
+				case CHARS:
+					add(CONSUME, 0, 0, node.set);
+					break;
+				case ZERO:
+					add(ASSERT, node.assertion, 0, null);
+					break;
+				case SEQUENCE:
+					for (Node child : node.children) {
+						emit(child);
+					}
+					break;
+				case ALTERNATE:
+					Vector<Integer> jumps = new Vector<>();
+					for (int i = 0; i < node.children.size(); i++) {
+						if (i < node.children.size() - 1) {
+							int split = add(SPLIT, 0, 0, null);
+							emit(node.children.get(i));
+							jumps.add(add(JUMP, 0, 0, null));
+							patch(split, split + 1, next());
+						} else {
+							emit(node.children.get(i));
+						}
+					}
+					for (int jump : jumps) {
+						patch(jump, next(), 0);
+					}
+					break;
+				case GROUP:
+					if (node.group > -1) {
+						add(SAVE, node.group * 2, 0, null);
+					}
+					emit(node.children.get(0));
+					if (node.group > -1) {
+						add(SAVE, node.group * 2 + 1, 0, null);
+					}
+					break;
+				default:
+					repeat(node);
+			}
+		}
+
+		private void repeat(Node node) {
+			Node body = node.children.get(0);
+
+			if (!node.unbounded) {
+				// X? tries X first (or last, when lazy).
+				int split = add(SPLIT, 0, 0, null);
+				emit(body);
+				split(split, split + 1, next(), node.greedy);
+			} else if (body.minLength() > 0) {
+				if (node.min == 0) {
+					// X* decides whether to match X again before each one.
+					int split = add(SPLIT, 0, 0, null);
+					emit(body);
+					add(JUMP, split, 0, null);
+					split(split, split + 1, next(), node.greedy);
+				} else {
+					// X+ matches X once, then decides whether to match it again.
+					int start = next();
+					emit(body);
+					int split = add(SPLIT, 0, 0, null);
+					split(split, start, next(), node.greedy);
+				}
+			} else {
+				emptyLoop(node);
+			}
+		}
+
+		/**
+		 * Compiles a group repeated with * or + whose contents can match the empty string, like
+		 * {@code (?:\s|\b)+}. Java stops repeating such a group after an iteration that
+		 * matched nothing, so every alternative of the group must either always consume
+		 * text (and the group may repeat) or never do (and the repetition ends).
+		 */
+		private void emptyLoop(Node node) {
+			Node group = node.children.get(0);
+			if (group.type != GROUP) {
+				throw new IllegalArgumentException("Repeated empty expression");
+			}
+			Vector<Node> alternatives = new Vector<>();
+			Node contents = group.children.get(0);
+			if (contents.type == ALTERNATE) {
+				alternatives.addAll(contents.children);
+			} else {
+				alternatives.add(contents);
+			}
+			for (Node alternative : alternatives) {
+				if (alternative.minLength() == 0 && !alternative.zeroWidth()) {
+					throw new IllegalArgumentException("Repeated empty expression");
+				}
+			}
+
+			int enter = -1;
+			if (node.min == 0) {
+				enter = add(SPLIT, 0, 0, null);
+			}
+			int iteration = next();
+			if (group.group > -1) {
+				add(SAVE, group.group * 2, 0, null);
+			}
+
+			Vector<Integer> repeats = new Vector<>();
+			Vector<Integer> exits = new Vector<>();
+			for (int i = 0; i < alternatives.size(); i++) {
+				int split = -1;
+				if (i < alternatives.size() - 1) {
+					split = add(SPLIT, 0, 0, null);
+				}
+				emit(alternatives.get(i));
+				if (group.group > -1) {
+					add(SAVE, group.group * 2 + 1, 0, null);
+				}
+				if (alternatives.get(i).zeroWidth()) {
+					exits.add(add(JUMP, 0, 0, null));
+				} else {
+					repeats.add(add(SPLIT, 0, 0, null));
+				}
+				if (split > -1) {
+					patch(split, split + 1, next());
+				}
+			}
+
+			int exit = next();
+			if (enter > -1) {
+				split(enter, iteration, exit, node.greedy);
+			}
+			for (int pc : repeats) {
+				split(pc, iteration, exit, node.greedy);
+			}
+			for (int pc : exits) {
+				patch(pc, exit, 0);
+			}
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Matches messages against a topic's triggers with {@link Automaton}s instead of
+ * {@link java.util.regex}, so a long message can't make a trigger with several wildcards
+ * backtrack for ages.
+ * <p>
+ * The {@link TriggerIndex} still rules out the triggers that can't match, and the remaining
+ * ones are run in sort order. The regexps of dynamic triggers are compiled into automata at
+ * match time and kept in a small LRU cache. Triggers with regexp syntax the automaton doesn't
+ * support, and messages with non-ASCII characters, are left to {@link java.util.regex}.
+ *
+ * @see MatchEngine#AUTOMATON
+ */
+public class AutomatonMatcher implements TriggerMatcher {
+
+	// The number of automata to keep for the dynamic triggers.
+	private static final int CACHE_SIZE = 64;
+
+	private CompiledTrigger[] triggers;
+	private TriggerIndex index;
+	private Automaton[] automata;        // The automaton of each static trigger, if supported
+	private Map<String, Automaton> cache; // Regexp -> automaton for the dynamic triggers
+	private final ReentrantLock cacheLock = new ReentrantLock(); // Guards the cache
+
+	/**
+	 * Compiles the automata for a topic's sort buffer.
+	 *
+	 * @param triggers The compiled triggers, in sort order.
+	 */
+	public AutomatonMatcher(CompiledTrigger[] triggers) {
+		this.triggers = triggers;
+		this.index = new TriggerIndex(triggers);
+		this.automata = new Automaton[triggers.length];
+		for (int i = 0; i < triggers.length; i++) {
+			if (!triggers[i].isDynamic()) {
+				automata[i] = Automaton.compile(triggers[i].getRegexp().pattern());
+			}
+		}
+		this.cache = new LinkedHashMap<String, Automaton>(CACHE_SIZE, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Automaton> eldest) {
+				return size() > CACHE_SIZE;
+			}
+		};
+	}
+
+	/**
+	 * Returns the position of the first trigger matching the message, running the
+	 * {@link TriggerIndex#candidates(String)} as automata.
+	 *
+	 * @param message The formatted message.
+	 * @param stars   The vector the matched trigger's wildcards are added to.
+	 * @param test    Tests a single trigger against the message with its regexp.
+	 */
+	@Override
+	public int match(String message, Vector<String> stars, TriggerTest test) {
+		boolean supported = Automaton.supports(message);
+		int[] candidates = index.candidates(message);
+		for (int c = 0; c < candidates.length; c++) {
+			int position = candidates[c];
+			Automaton automaton = supported ? automaton(position, test) : null;
+			if (automaton == null) {
+				if (test.test(position, message, stars)) {
+					return position;
+				}
+				continue;
+			}
+
+			String[] groups = automaton.find(message);
+			if (groups != null) {
+				for (int g = 0; g < groups.length; g++) {
+					stars.add(groups[g] == null ? "" : groups[g]);
+				}
+				return position;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the automaton for the trigger at a position, or {@code null} if its regexp isn't
+	 * supported.
+	 *
+	 * @param position The position of the trigger in the sort buffer.
+	 * @param test     Gives the regexp of a dynamic trigger for the current user.
+	 */
+	private Automaton automaton(int position, TriggerTest test) {
+		if (!triggers[position].isDynamic()) {
+			return automata[position];
+		}
+
+		String regexp = test.regexp(position).pattern();
+		cacheLock.lock();
+		try {
+			if (cache.containsKey(regexp)) {
+				return cache.get(regexp);
+			}
+		} finally {
+			cacheLock.unlock();
+		}
+		Automaton automaton = Automaton.compile(regexp);
+		cacheLock.lock();
+		try {
+			cache.put(regexp, automaton);
+		} finally {
+			cacheLock.unlock();
+		}
+		return automaton;
+	}
+}
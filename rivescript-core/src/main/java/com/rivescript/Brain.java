@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A snapshot of everything the bot needs to reply: the compiled topics, arrays, replies and
+ * substitutions, as they were when the replies were last sorted.
+ * <p>
+ * A brain is never modified. {@link RiveScript#sortReplies()} builds a new one and publishes
+ * it at once, so replies in flight finish with the brain they started with, while loading and
+ * sorting replies doesn't stop the bot from replying.
+ * <p>
+ * {@link RiveScript#compile()} returns a brain that also carries the bot variables, globals
+ * and inline object macros. Any number of read-only interpreters can be created from it with
+ * {@link RiveScript#RiveScript(Brain)}, each with its own users, and share it between them.
+ */
+public class Brain {
+
+	private final HashMap<String, CompiledTopic> topics;     // Topic name -> compiled topic
+	private final HashMap<String, CompiledArray> arrays;     // Array name -> compiled array
+	private final HashMap<String, ReplyTemplate> templates;  // Reply -> compiled reply
+	private final Normalizer normalizer;                     // Formats messages with the subs
+	private final Substituter person;                        // The compiled person substitutions
+	private final Map<String, String> variables;             // ! var
+	private final Map<String, String> globals;               // ! global
+	private final Map<String, String> objects;               // Object name -> language
+	private final Map<String, String[]> sources;             // Object name -> code
+
+	/**
+	 * Creates a brain. The maps are copied, so changing them doesn't change the brain.
+	 *
+	 * @param topics     The compiled topics.
+	 * @param arrays     The compiled arrays.
+	 * @param templates  The compiled replies.
+	 * @param normalizer Formats messages with the substitutions.
+	 * @param person     The compiled person substitutions.
+	 */
+	public Brain(HashMap<String, CompiledTopic> topics, HashMap<String, CompiledArray> arrays,
+			HashMap<String, ReplyTemplate> templates, Normalizer normalizer, Substituter person) {
+		this(new HashMap<>(topics), new HashMap<>(arrays), new HashMap<>(templates), normalizer, person,
+				Collections.<String, String>emptyMap(), Collections.<String, String>emptyMap(),
+				Collections.<String, String>emptyMap(), Collections.<String, String[]>emptyMap());
+	}
+
+	private Brain(HashMap<String, CompiledTopic> topics, HashMap<String, CompiledArray> arrays,
+			HashMap<String, ReplyTemplate> templates, Normalizer normalizer, Substituter person,
+			Map<String, String> variables, Map<String, String> globals, Map<String, String> objects,
+			Map<String, String[]> sources) {
+		this.topics = topics;
+		this.arrays = arrays;
+		this.templates = templates;
+		this.normalizer = normalizer;
+		this.person = person;
+		this.variables = variables;
+		this.globals = globals;
+		this.objects = objects;
+		this.sources = sources;
+	}
+
+	/**
+	 * Returns a compiled topic, or {@code null} if it doesn't exist.
+	 *
+	 * @param name The name of the topic.
+	 */
+	public CompiledTopic topic(String name) {
+		return topics.get(name);
+	}
+
+	/**
+	 * Returns whether a topic exists.
+	 *
+	 * @param name The name of the topic.
+	 */
+	public boolean exists(String name) {
+		return topics.containsKey(name);
+	}
+
+	/**
+	 * Returns the compiled arrays (read-only).
+	 */
+	public Map<String, CompiledArray> getArrays() {
+		return Collections.unmodifiableMap(arrays);
+	}
+
+	/**
+	 * Returns the compiled reply, or compiles one if the reply wasn't known when sorting.
+	 *
+	 * @param reply The reply.
+	 */
+	public ReplyTemplate template(String reply) {
+		ReplyTemplate template = templates.get(reply);
+		if (template == null) {
+			template = new ReplyTemplate(reply, arrays);
+		}
+		return template;
+	}
+
+	/**
+	 * Returns the {@link Normalizer} for the user's messages.
+	 */
+	public Normalizer getNormalizer() {
+		return normalizer;
+	}
+
+	/**
+	 * Returns the compiled person substitutions.
+	 */
+	public Substituter getPerson() {
+		return person;
+	}
+
+	/**
+	 * Returns a copy of this brain with other substitutions.
+	 *
+	 * @param normalizer Formats messages with the new substitutions.
+	 * @param person     The new person substitutions.
+	 */
+	public Brain withSubstitutions(Normalizer normalizer, Substituter person) {
+		return new Brain(topics, arrays, templates, normalizer, person, variables, globals, objects, sources);
+	}
+
+	/**
+	 * Returns a copy of this brain with the definitions that aren't needed to reply, but are
+	 * needed to start a new interpreter from it. The maps are copied.
+	 *
+	 * @param variables The bot variables.
+	 * @param globals   The global variables.
+	 * @param objects   The names of the inline object macros, and their languages.
+	 * @param sources   The code of the inline object macros.
+	 */
+	public Brain withDefinitions(Map<String, String> variables, Map<String, String> globals,
+			Map<String, String> objects, Map<String, String[]> sources) {
+		return new Brain(topics, arrays, templates, normalizer, person,
+				Collections.unmodifiableMap(new HashMap<>(variables)),
+				Collections.unmodifiableMap(new HashMap<>(globals)),
+				Collections.unmodifiableMap(new HashMap<>(objects)),
+				Collections.unmodifiableMap(new HashMap<>(sources)));
+	}
+
+	/**
+	 * Returns the bot variables (read-only).
+	 */
+	public Map<String, String> getVariables() {
+		return variables;
+	}
+
+	/**
+	 * Returns the global variables (read-only).
+	 */
+	public Map<String, String> getGlobals() {
+		return globals;
+	}
+
+	/**
+	 * Returns the names of the inline object macros, and their languages (read-only).
+	 */
+	public Map<String, String> getObjects() {
+		return objects;
+	}
+
+	/**
+	 * Returns the code of an inline object macro, or {@code null} if it doesn't exist.
+	 *
+	 * @param name The name of the object macro.
+	 */
+	public String[] getSource(String name) {
+		return sources.get(name);
+	}
+}
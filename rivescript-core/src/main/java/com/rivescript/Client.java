@@ -23,11 +23,17 @@
 package com.rivescript;
 
 import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static java.util.Objects.requireNonNull;
 
 /**
- * An object to represent an individual user's data.
+ * An object to represent an individual user's data. Its methods take a lock, so other threads
+ * can read and set the user's variables while the bot replies to them. Each client also has
+ * the lock that keeps the user's replies in order.
  *
  * @author Noah Petherbridge
  */
@@ -37,6 +43,14 @@ public class Client {
 	private HashMap<String, String> data = new HashMap<>(); // User data
 	private String[] input = new String[10]; // User's inputs
 	private String[] reply = new String[10]; // Bot's replies
+	private HashMap<PreviousIndex, String[][]> previousMatches = new HashMap<>(); // %Previous matches for the last reply
+	private Object randomOwner = null; // The source that seeded the generator
+	private int randomGeneration = 0;  // The generation of the source that seeded it
+	private Random random = null;      // The user's random number generator, for a SeededRandomSource
+	private final ReentrantLock lock = new ReentrantLock(true); // Held while replying to the user
+	private final ReentrantLock dataLock = new ReentrantLock(); // Guards the fields above
+	private final AtomicReference<CompletableFuture<Void>> lastAsync = new AtomicReference<>(
+			CompletableFuture.<Void>completedFuture(null)); // Completes when the last async reply did
 
 	/**
 	 * Creates a new client object.
@@ -56,6 +70,31 @@ public class Client {
 		}
 	}
 
+	/**
+	 * Returns the unique ID of the client.
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the lock to hold while replying to the user, so their messages are handled one at
+	 * a time. It's fair, so waiting messages get their turn in the order they arrived.
+	 */
+	public ReentrantLock getLock() {
+		return lock;
+	}
+
+	/**
+	 * Queues an asynchronous reply to the user behind the previous one. Returns the future of the
+	 * previous reply, which the new one should wait for.
+	 *
+	 * @param done Completes when the new reply did, whether it failed or not.
+	 */
+	CompletableFuture<Void> queueAsync(CompletableFuture<Void> done) {
+		return lastAsync.getAndSet(done);
+	}
+
 	/**
 	 * Sets a variable for the client.
 	 *
@@ -63,7 +102,12 @@ public class Client {
 	 * @param value The value to set in the variable.
 	 */
 	public void set(String name, String value) {
-		data.put(name, value);
+		dataLock.lock();
+		try {
+			data.put(name, value);
+		} finally {
+			dataLock.unlock();
+		}
 	}
 
 	/**
@@ -73,10 +117,15 @@ public class Client {
 	 * @param name The name of the variable.
 	 */
 	public String get(String name) {
-		if (data.containsKey(name)) {
-			return data.get(name);
+		dataLock.lock();
+		try {
+			if (data.containsKey(name)) {
+				return data.get(name);
+			}
+			return "undefined";
+		} finally {
+			dataLock.unlock();
 		}
-		return "undefined";
 	}
 
 	/**
@@ -85,16 +134,27 @@ public class Client {
 	 * @param name The name of the variable.
 	 */
 	public void delete(String name) {
-		if (data.containsKey(name)) {
-			data.remove(name);
+		dataLock.lock();
+		try {
+			if (data.containsKey(name)) {
+				data.remove(name);
+			}
+		} finally {
+			dataLock.unlock();
 		}
 	}
 
 	/**
-	 * Retrieves a {@link HashMap} of all the user's variables and values.
+	 * Retrieves a {@link HashMap} of all the user's variables and values. It's a snapshot:
+	 * changing it doesn't change the user, and later changes to the user don't show in it.
 	 */
 	public HashMap<String, String> getData() {
-		return data;
+		dataLock.lock();
+		try {
+			return new HashMap<>(data);
+		} finally {
+			dataLock.unlock();
+		}
 	}
 
 	/**
@@ -103,8 +163,13 @@ public class Client {
 	 * @param newdata The new data.
 	 */
 	public boolean setData(HashMap<String, String> newdata) {
-		this.data = newdata;
-		return true;
+		dataLock.lock();
+		try {
+			this.data = newdata;
+			return true;
+		} finally {
+			dataLock.unlock();
+		}
 	}
 
 	/**
@@ -113,8 +178,13 @@ public class Client {
 	 * @param text The text to add to the user's input history.
 	 */
 	public void addInput(String text) {
-		// Push this onto the front of the input array.
-		input = unshift(input, text);
+		dataLock.lock();
+		try {
+			// Push this onto the front of the input array.
+			input = unshift(input, text);
+		} finally {
+			dataLock.unlock();
+		}
 	}
 
 	/**
@@ -123,8 +193,16 @@ public class Client {
 	 * @param text The text to add to the user's reply history.
 	 */
 	public void addReply(String text) {
-		// Push this onto the front of the reply array.
-		reply = unshift(reply, text);
+		dataLock.lock();
+		try {
+			// Push this onto the front of the reply array.
+			reply = unshift(reply, text);
+
+			// The %Previous matches were for the last reply.
+			previousMatches.clear();
+		} finally {
+			dataLock.unlock();
+		}
 	}
 
 	/**
@@ -133,10 +211,15 @@ public class Client {
 	 * @param index The index of the input value to get (1-9).
 	 */
 	public String getInput(int index) throws java.lang.IndexOutOfBoundsException {
-		if (index >= 1 && index <= 9) {
-			return this.input[index - 1];
-		} else {
-			throw new java.lang.IndexOutOfBoundsException();
+		dataLock.lock();
+		try {
+			if (index >= 1 && index <= 9) {
+				return this.input[index - 1];
+			} else {
+				throw new java.lang.IndexOutOfBoundsException();
+			}
+		} finally {
+			dataLock.unlock();
 		}
 	}
 
@@ -146,10 +229,70 @@ public class Client {
 	 * @param index The index of the reply value to get (1-9).
 	 */
 	public String getReply(int index) throws java.lang.IndexOutOfBoundsException {
-		if (index >= 1 && index <= 9) {
-			return this.reply[index - 1];
-		} else {
-			throw new java.lang.IndexOutOfBoundsException();
+		dataLock.lock();
+		try {
+			if (index >= 1 && index <= 9) {
+				return this.reply[index - 1];
+			} else {
+				throw new java.lang.IndexOutOfBoundsException();
+			}
+		} finally {
+			dataLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the memoized matches of a {@link PreviousIndex} against the bot's last reply:
+	 * the captured groups for each {@code %Previous} pattern that matched, or {@code null} for
+	 * those that didn't. Returns {@code null} if they haven't been memoized since the last reply.
+	 *
+	 * @param index The %Previous index of a topic.
+	 */
+	public String[][] getPreviousMatches(PreviousIndex index) {
+		dataLock.lock();
+		try {
+			return previousMatches.get(index);
+		} finally {
+			dataLock.unlock();
+		}
+	}
+
+	/**
+	 * Memoizes the matches of a {@link PreviousIndex} against the bot's last reply.
+	 *
+	 * @param index   The %Previous index of a topic.
+	 * @param matches The captured groups for each {@code %Previous} pattern, or {@code null}
+	 *                for those that didn't match.
+	 */
+	public void setPreviousMatches(PreviousIndex index, String[][] matches) {
+		dataLock.lock();
+		try {
+			previousMatches.put(index, matches);
+		} finally {
+			dataLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the random number generator that a {@link RandomSource} keeps for this user, and
+	 * seeds a new one if the generator belongs to another source (or another generation of it).
+	 * The generator goes away with the client.
+	 *
+	 * @param owner      The source.
+	 * @param generation The generation of the source.
+	 * @param seed       The seed for a new generator.
+	 */
+	Random random(Object owner, int generation, long seed) {
+		dataLock.lock();
+		try {
+			if (random == null || owner != randomOwner || generation != randomGeneration) {
+				randomOwner = owner;
+				randomGeneration = generation;
+				random = new Random(seed);
+			}
+			return random;
+		} finally {
+			dataLock.unlock();
 		}
 	}
 
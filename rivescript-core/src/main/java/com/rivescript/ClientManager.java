@@ -22,18 +22,18 @@
 
 package com.rivescript;
 
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * A manager for all the bot's users.
+ * A manager for all the bot's users. It's safe to use from several threads.
  *
  * @author Noah Petherbridge
  */
 public class ClientManager {
 
-	private HashMap<String, Client> clients = new HashMap<>(); // List of users
+	private ConcurrentHashMap<String, Client> clients = new ConcurrentHashMap<>(); // List of users
 
 	/**
 	 * Creates a client manager. Only one needed per bot.
@@ -48,13 +48,19 @@ public class ClientManager {
 	 * @param userId The user id.
 	 */
 	public Client client(String userId) {
-		// Is this a new topic?
-		if (clients.containsKey(userId) == false) {
-			// Create it.
-			clients.put(userId, new Client(userId));
+		Client client = userId == null ? null : clients.get(userId);
+
+		// Is this a new user?
+		if (client == null) {
+			// Create it, unless another thread just did.
+			Client created = new Client(userId);
+			client = clients.putIfAbsent(userId, created);
+			if (client == null) {
+				client = created;
+			}
 		}
 
-		return clients.get(userId);
+		return client;
 	}
 
 	/**
@@ -75,7 +81,7 @@ public class ClientManager {
 	 * @param userId The user id.
 	 */
 	public boolean clientExists(String userId) {
-		if (clients.containsKey(userId)) {
+		if (userId != null && clients.containsKey(userId)) {
 			return true;
 		}
 		return false;
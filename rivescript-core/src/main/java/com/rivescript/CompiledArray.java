@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.Vector;
+
+/**
+ * An {@code ! array} compiled by {@link RiveScript#sortReplies()}.
+ * <p>
+ * The items are copied into a fixed list along with a hash set for membership tests, and the
+ * regexp alternation that replaces the array in triggers is built once, with the items escaped.
+ */
+public class CompiledArray {
+
+	private final String[] items;      // The items, in the order they were defined
+	private final Set<String> set;     // The items, for membership tests
+	private final String alternation;  // The (?:a|b|c) regexp for triggers
+
+	/**
+	 * Compiles an array.
+	 *
+	 * @param items The items of the array.
+	 */
+	public CompiledArray(Vector<String> items) {
+		this.items = Util.Sv2s(items);
+		this.set = Collections.unmodifiableSet(new HashSet<>(items));
+
+		StringBuilder alternation = new StringBuilder("(?:");
+		for (int i = 0; i < this.items.length; i++) {
+			if (i > 0) {
+				alternation.append("|");
+			}
+			alternation.append(escape(this.items[i]));
+		}
+		this.alternation = alternation.append(")").toString();
+	}
+
+	/**
+	 * Returns the number of items.
+	 */
+	public int size() {
+		return items.length;
+	}
+
+	/**
+	 * Returns an item.
+	 *
+	 * @param index The index of the item.
+	 */
+	public String get(int index) {
+		return items[index];
+	}
+
+	/**
+	 * Returns whether the array contains an item.
+	 *
+	 * @param item The item.
+	 */
+	public boolean contains(String item) {
+		return set.contains(item);
+	}
+
+	/**
+	 * Returns the non-capturing regexp alternation of the items, e.g. {@code (?:red|blue)}.
+	 */
+	public String getAlternation() {
+		return alternation;
+	}
+
+	/**
+	 * Returns a random item.
+	 *
+	 * @param rand The random number generator.
+	 */
+	public String random(Random rand) {
+		return items[rand.nextInt(items.length)];
+	}
+
+	/**
+	 * Escapes the regexp metacharacters in an item.
+	 *
+	 * @param item The item.
+	 */
+	private static String escape(String item) {
+		StringBuilder escaped = new StringBuilder();
+		for (int i = 0; i < item.length(); i++) {
+			char c = item.charAt(i);
+			if ("\\^$.|?*+()[]{}".indexOf(c) > -1) {
+				escaped.append('\\');
+			}
+			escaped.append(c);
+		}
+		return escaped.toString();
+	}
+}
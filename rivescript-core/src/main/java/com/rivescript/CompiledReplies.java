@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+/**
+ * The replies, redirects and conditions of a {@link Trigger}, frozen when the replies were
+ * sorted, along with their weights.
+ */
+public class CompiledReplies {
+
+	private final String topic;            // The topic the trigger belongs to
+	private final String[] replies;        // The replies
+	private final String[] redirects;      // The redirects, with their {weight} tags
+	private final Condition[] conditions;  // The compiled conditions
+	private final WeightedChoice weights;  // Picks a redirect or reply
+
+	/**
+	 * Freezes the replies of a trigger.
+	 *
+	 * @param trigger    The trigger.
+	 * @param conditions The compiled conditions, in the same order as {@link Trigger#listConditions()}.
+	 */
+	public CompiledReplies(Trigger trigger, Condition[] conditions) {
+		this.topic = trigger.topic();
+		this.replies = trigger.listReplies();
+		this.redirects = trigger.listRedirects();
+		this.conditions = conditions;
+		this.weights = new WeightedChoice(redirects, replies);
+	}
+
+	/**
+	 * Returns the topic the trigger belongs to.
+	 */
+	public String topic() {
+		return topic;
+	}
+
+	/**
+	 * Returns the replies.
+	 */
+	public String[] listReplies() {
+		return replies;
+	}
+
+	/**
+	 * Returns the redirects, with their {@code {weight}} tags.
+	 */
+	public String[] listRedirects() {
+		return redirects;
+	}
+
+	/**
+	 * Returns the compiled conditions.
+	 */
+	public Condition[] listConditions() {
+		return conditions;
+	}
+
+	/**
+	 * Returns the weights to pick a redirect or reply with.
+	 */
+	public WeightedChoice getWeights() {
+		return weights;
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+import java.util.HashMap;
+
+/**
+ * A sorted and compiled {@link Topic}, as it was when the replies were sorted. Unlike the
+ * topic, it doesn't change when more replies are loaded.
+ */
+public class CompiledTopic {
+
+	private final String name;
+	private final CompiledTrigger[] triggers;                 // Sorted triggers with their regexps
+	private final TriggerMatcher matcher;                     // Matches messages against the triggers
+	private final CompiledReplies[] replies;                  // The replies of each sorted trigger
+	private final PreviousIndex previousIndex;                // Compiled %Previous's and their triggers
+	private final HashMap<String, CompiledReplies> previous;  // "trigger{previous}pattern" -> replies
+	private final String[] tree;                              // Flattened inherit/include tree
+	private final boolean previousInTree;                     // Any topic in the tree has a %Previous
+
+	/**
+	 * Freezes a sorted and compiled topic.
+	 *
+	 * @param topic   The topic.
+	 * @param replies The frozen replies of the triggers.
+	 */
+	public CompiledTopic(Topic topic, HashMap<Trigger, CompiledReplies> replies) {
+		this.name = topic.name;
+		this.triggers = topic.listCompiledTriggers();
+		this.matcher = topic.getMatcher();
+		this.previousIndex = topic.getPreviousIndex();
+		this.tree = topic.listTopicTree();
+		this.previousInTree = topic.hasPreviousInTree();
+
+		Trigger[] resolved = topic.listResolvedTriggers();
+		this.replies = new CompiledReplies[resolved.length];
+		for (int i = 0; i < resolved.length; i++) {
+			this.replies[i] = resolved[i] == null ? null : replies.get(resolved[i]);
+		}
+
+		this.previous = new HashMap<>();
+		if (topic.hasPrevious()) {
+			for (String pattern : topic.listTriggers(true)) {
+				if (pattern.indexOf("{previous}") > -1) {
+					this.previous.put(pattern, replies.get(topic.trigger(pattern)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the name of the topic.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the sorted triggers with their regexps.
+	 */
+	public CompiledTrigger[] listCompiledTriggers() {
+		return triggers;
+	}
+
+	/**
+	 * Returns the {@link TriggerMatcher} over the compiled triggers.
+	 */
+	public TriggerMatcher getMatcher() {
+		return matcher;
+	}
+
+	/**
+	 * Returns the replies of a sorted trigger, which may belong to an inherited or included
+	 * topic, or {@code null} if it couldn't be found.
+	 *
+	 * @param position The position of the trigger in {@link #listCompiledTriggers()}.
+	 */
+	public CompiledReplies getReplies(int position) {
+		return replies[position];
+	}
+
+	/**
+	 * Returns the replies of a trigger that follows a {@code %Previous}, or {@code null}.
+	 *
+	 * @param trigger The trigger, as {@code trigger{previous}pattern}.
+	 */
+	public CompiledReplies getPreviousReplies(String trigger) {
+		return previous.get(trigger);
+	}
+
+	/**
+	 * Returns the compiled {@code %Previous} patterns and their triggers, or {@code null}.
+	 */
+	public PreviousIndex getPreviousIndex() {
+		return previousIndex;
+	}
+
+	/**
+	 * Returns the flattened inherit/include tree of this topic, starting with the topic itself.
+	 */
+	public String[] listTopicTree() {
+		return tree;
+	}
+
+	/**
+	 * Returns whether any topic in this topic's inherit/include tree has a {@code %Previous}.
+	 */
+	public boolean hasPreviousInTree() {
+		return previousInTree;
+	}
+}
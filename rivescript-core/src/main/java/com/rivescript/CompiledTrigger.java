@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+import java.util.regex.Pattern;
+
+/**
+ * A trigger from a topic's sort buffer along with its precompiled regular expression.
+ * <p>
+ * Triggers that don't contain any tags depending on the user or the bot at match time
+ * (like {@code <get>}, {@code <bot>}, {@code <input>} or {@code <reply>}) are compiled
+ * once by {@link RiveScript#sortReplies()}, so matching them only needs to run the
+ * {@link Pattern}. The others keep a {@link TriggerTemplate} that only needs its holes
+ * filled in at match time.
+ */
+public class CompiledTrigger {
+
+	private String pattern; // The trigger text as it appears in the sort buffer
+	private TriggerTemplate template; // The regexp template with holes for the dynamic tags
+	private Pattern regexp; // The compiled regexp, or null if the trigger is dynamic
+	private String literal; // The exact text the trigger matches, if its regexp is plain text
+
+	/**
+	 * Creates a new compiled trigger.
+	 *
+	 * @param pattern  The trigger text from the sort buffer.
+	 * @param template The trigger's regexp template.
+	 */
+	public CompiledTrigger(String pattern, TriggerTemplate template) {
+		this.pattern = pattern;
+		this.template = template;
+		if (template.isStatic()) {
+			this.regexp = template.compile(new String[0]);
+
+			// Atomic triggers made of whole words only match their own text.
+			String text = template.fill(new String[0]);
+			if (text.matches("[A-Za-z0-9 ]+")) {
+				this.literal = text;
+			}
+		}
+	}
+
+	/**
+	 * Returns the trigger text from the sort buffer.
+	 */
+	public String getPattern() {
+		return this.pattern;
+	}
+
+	/**
+	 * Returns the compiled regexp, or {@code null} if the trigger is dynamic.
+	 */
+	public Pattern getRegexp() {
+		return this.regexp;
+	}
+
+	/**
+	 * Returns the regexp template of the trigger.
+	 */
+	public TriggerTemplate getTemplate() {
+		return this.template;
+	}
+
+	/**
+	 * Returns the exact text the trigger matches, or {@code null} if it needs a regexp.
+	 */
+	public String getLiteral() {
+		return this.literal;
+	}
+
+	/**
+	 * Returns whether the trigger contains tags that have to be filled in at match time.
+	 */
+	public boolean isDynamic() {
+		return this.regexp == null;
+	}
+}
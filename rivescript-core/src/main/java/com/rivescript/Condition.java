@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A {@code * condition} compiled by {@link RiveScript#sortReplies()}: the two sides of the
+ * comparison as {@link ReplyTemplate}s, its {@link Operator}, and the reply it gives.
+ * <p>
+ * A side without tags is the same for every user, so it's kept as text, and parsed as a number
+ * up front if it is one. Testing the condition only renders the sides that have tags.
+ */
+public class Condition {
+
+	/**
+	 * The comparison operators. {@code eq} and {@code ne} compare text, {@code ==} and
+	 * {@code !=} compare text or numbers, and the others compare numbers.
+	 */
+	public enum Operator {
+		EQ("eq"),
+		NE("ne"),
+		EQUALS("=="),
+		NOT_EQUALS("!="),
+		LESS("<"),
+		LESS_OR_EQUAL("<="),
+		GREATER(">"),
+		GREATER_OR_EQUAL(">=");
+
+		private final String symbol;
+
+		Operator(String symbol) {
+			this.symbol = symbol;
+		}
+
+		/**
+		 * Returns the symbol of the operator, e.g. {@code ==}.
+		 */
+		public String getSymbol() {
+			return symbol;
+		}
+
+		/**
+		 * Returns the operator for a symbol ({@code <>} is {@link #NOT_EQUALS}), or {@code null}.
+		 *
+		 * @param symbol The symbol.
+		 */
+		public static Operator forSymbol(String symbol) {
+			if (symbol.equals("<>")) {
+				return NOT_EQUALS;
+			}
+			for (Operator operator : values()) {
+				if (operator.symbol.equals(symbol)) {
+					return operator;
+				}
+			}
+			return null;
+		}
+	}
+
+	private static final Pattern reHalves = Pattern.compile("\\s*=>\\s*");
+	private static final Pattern reCondition = Pattern.compile("^(.+?)\\s+(==|eq|\\!=|ne|<>|<|<=|>|>=)\\s+(.+?)$");
+
+	// What a side that isn't a number parses to.
+	private static final long NAN = Long.MIN_VALUE;
+
+	private final String source;     // The condition, as written
+	private final String reply;      // The reply when it's true
+	private Operator operator = null;
+	private ReplyTemplate left = null;
+	private ReplyTemplate right = null;
+	private long leftNumber = NAN;   // The left side, if it has no tags and is a number
+	private long rightNumber = NAN;  // The right side, if it has no tags and is a number
+
+	/**
+	 * Compiles a condition, e.g. {@code <get name> == undefined => What's your name?}.
+	 *
+	 * @param condition The condition.
+	 * @param arrays    The compiled arrays, for {@code (@array)} tags.
+	 */
+	public Condition(String condition, HashMap<String, CompiledArray> arrays) {
+		this.source = condition;
+
+		// Separate the condition from the potential reply.
+		String[] halves = reHalves.split(condition);
+		if (halves.length < 2) {
+			this.reply = null;
+			return;
+		}
+		this.reply = halves[1].trim();
+
+		// Split up the condition.
+		Matcher mCond = reCondition.matcher(halves[0].trim());
+		if (mCond.find()) {
+			this.left = new ReplyTemplate(mCond.group(1).trim(), arrays);
+			this.operator = Operator.forSymbol(mCond.group(2).trim());
+			this.right = new ReplyTemplate(mCond.group(3).trim(), arrays);
+			if (left.getText() != null) {
+				leftNumber = number(side(left.getText()));
+			}
+			if (right.getText() != null) {
+				rightNumber = number(side(right.getText()));
+			}
+		}
+	}
+
+	/**
+	 * Returns the condition as it was written.
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * Returns whether the condition could be parsed. One that couldn't is never true.
+	 */
+	public boolean isValid() {
+		return operator != null;
+	}
+
+	/**
+	 * Returns the comparison operator, or {@code null} if the condition couldn't be parsed.
+	 */
+	public Operator getOperator() {
+		return operator;
+	}
+
+	/**
+	 * Returns the reply to give when the condition is true, or {@code null} if there's none.
+	 */
+	public String getReply() {
+		return reply;
+	}
+
+	/**
+	 * Tests the condition.
+	 *
+	 * @param processor Renders the sides of the condition that have tags.
+	 */
+	public boolean test(TagProcessor processor) {
+		if (operator == null) {
+			return false;
+		}
+		String lt = side(left.render(processor));
+		String rt = side(right.render(processor));
+
+		// String equality comparing.
+		if (operator == Operator.EQ || operator == Operator.EQUALS) {
+			if (lt.equals(rt)) {
+				return true;
+			} else if (operator == Operator.EQ) {
+				return false;
+			}
+		} else if (operator == Operator.NE || operator == Operator.NOT_EQUALS) {
+			if (!lt.equals(rt)) {
+				return true;
+			} else if (operator == Operator.NE) {
+				return false;
+			}
+		}
+
+		// Numeric comparing.
+		long ln = left.getText() != null ? leftNumber : number(lt);
+		long rn = right.getText() != null ? rightNumber : number(rt);
+		if (ln == NAN || rn == NAN) {
+			return false;
+		}
+		switch (operator) {
+			case EQUALS:
+				return ln == rn;
+			case NOT_EQUALS:
+				return ln != rn;
+			case LESS:
+				return ln < rn;
+			case LESS_OR_EQUAL:
+				return ln <= rn;
+			case GREATER:
+				return ln > rn;
+			case GREATER_OR_EQUAL:
+				return ln >= rn;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * An empty side compares as {@code undefined}.
+	 */
+	private static String side(String text) {
+		return text.length() == 0 ? "undefined" : text;
+	}
+
+	/**
+	 * Parses an integer the way {@link Integer#parseInt(String)} does, but returns
+	 * {@link #NAN} instead of throwing when the text isn't one.
+	 *
+	 * @param text The text.
+	 */
+	private static long number(String text) {
+		int length = text.length();
+		int i = length > 0 && (text.charAt(0) == '-' || text.charAt(0) == '+') ? 1 : 0;
+		if (i == length || length - i > 10) {
+			return slowNumber(text);
+		}
+		long value = 0;
+		for (; i < length; i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9') {
+				return c < 128 ? NAN : slowNumber(text);
+			}
+			value = value * 10 + (c - '0');
+		}
+		if (text.charAt(0) == '-') {
+			value = -value;
+		}
+		return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? NAN : value;
+	}
+
+	private static long slowNumber(String text) {
+		try {
+			return Integer.parseInt(text);
+		} catch (NumberFormatException e) {
+			return NAN;
+		}
+	}
+}
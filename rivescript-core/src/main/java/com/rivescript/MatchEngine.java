@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+import java.util.HashMap;
+
+/**
+ * Builds the {@link TriggerMatcher} of every topic when the replies are sorted.
+ * <p>
+ * Use {@link RiveScript#setMatchEngine(MatchEngine)} to select one of the built-in engines
+ * or plug in your own.
+ */
+public interface MatchEngine {
+
+	/**
+	 * Tries the regexps of the triggers that a {@link TriggerIndex} can't rule out, in sort
+	 * order. This is the default.
+	 */
+	MatchEngine REGEXP = new MatchEngine() {
+
+		@Override
+		public TriggerMatcher compile(CompiledTrigger[] triggers, HashMap<String, CompiledArray> arrays) {
+			return new TriggerIndex(triggers);
+		}
+	};
+
+	/**
+	 * Walks the words of the message through a {@link WordTree} built from the triggers, so
+	 * the cost of matching grows with the length of the message rather than with the number
+	 * of triggers.
+	 */
+	MatchEngine WORD_TREE = new MatchEngine() {
+
+		@Override
+		public TriggerMatcher compile(CompiledTrigger[] triggers, HashMap<String, CompiledArray> arrays) {
+			return new WordTree(triggers, arrays);
+		}
+	};
+
+	/**
+	 * Runs the triggers that a {@link TriggerIndex} can't rule out as {@link Automaton}s, so
+	 * the time to match a message is linear in its length even for triggers with many
+	 * wildcards.
+	 */
+	MatchEngine AUTOMATON = new MatchEngine() {
+
+		@Override
+		public TriggerMatcher compile(CompiledTrigger[] triggers, HashMap<String, CompiledArray> arrays) {
+			return new AutomatonMatcher(triggers);
+		}
+	};
+
+	/**
+	 * Builds the matcher for a topic's sort buffer.
+	 *
+	 * @param triggers The topic's compiled triggers, in sort order.
+	 * @param arrays   The arrays defined with {@code ! array}.
+	 */
+	TriggerMatcher compile(CompiledTrigger[] triggers, HashMap<String, CompiledArray> arrays);
+}
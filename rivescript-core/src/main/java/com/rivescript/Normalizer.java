@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+import java.nio.CharBuffer;
+
+/**
+ * Formats a user's message (or the bot's last reply, for {@code %Previous}) before it's matched:
+ * lowercases it, runs the {@code ! sub} substitutions and strips the characters that
+ * triggers can't match.
+ * <p>
+ * Lowercasing and stripping are lookups in precomputed character tables, done in two buffers
+ * sized from the message, so there's no regexp nor any per-thread state. By
+ * default everything but {@code a-z}, {@code 0-9}, {@code _} and spaces is stripped. In
+ * Unicode mode the letters and digits of every script are kept too.
+ */
+public class Normalizer {
+
+	// Tables for ASCII characters: the lowercase form, and whether it's kept.
+	private static final char[] LOWER = new char[128];
+	private static final boolean[] KEEP = new boolean[128];
+
+	static {
+		for (char c = 0; c < 128; c++) {
+			LOWER[c] = c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+			KEEP[c] = (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_' || c == ' ';
+		}
+	}
+
+	private final Substituter subs; // The compiled substitutions
+	private final boolean unicode;  // Keep non-ASCII letters and digits
+
+	/**
+	 * Creates a normalizer.
+	 *
+	 * @param subs    The compiled substitutions.
+	 * @param unicode Whether to keep the letters and digits of every script.
+	 */
+	public Normalizer(Substituter subs, boolean unicode) {
+		this.subs = subs;
+		this.unicode = unicode;
+	}
+
+	/**
+	 * Returns whether non-ASCII letters and digits are kept.
+	 */
+	public boolean isUnicode() {
+		return unicode;
+	}
+
+	/**
+	 * Formats a message.
+	 *
+	 * @param message The message.
+	 */
+	public String normalize(String message) {
+		// Lowercase it.
+		int length = message.length();
+		char[] lower = new char[length];
+		for (int i = 0; i < length; i++) {
+			char c = message.charAt(i);
+			lower[i] = c < 128 ? LOWER[c] : UnicodeTables.LOWER[c];
+		}
+
+		// Run substitutions.
+		StringBuilder result = new StringBuilder(length + 16);
+		subs.substitute(CharBuffer.wrap(lower), result);
+
+		// Sanitize what's left.
+		int kept = 0;
+		for (int i = 0; i < result.length(); i++) {
+			char c = result.charAt(i);
+			if (c < 128 ? KEEP[c] : unicode && UnicodeTables.KEEP[c]) {
+				result.setCharAt(kept++, c);
+			}
+		}
+		result.setLength(kept);
+
+		return result.toString();
+	}
+
+	/**
+	 * The tables for every character of the Basic Multilingual Plane, only built once a
+	 * non-ASCII character shows up.
+	 */
+	private static class UnicodeTables {
+
+		private static final char[] LOWER = new char[65536];
+		private static final boolean[] KEEP = new boolean[65536];
+
+		static {
+			for (int c = 0; c < 65536; c++) {
+				LOWER[c] = Character.toLowerCase((char) c);
+				KEEP[c] = Character.isLetterOrDigit((char) c) && Character.toLowerCase((char) c) == c;
+			}
+		}
+	}
+}
@@ -22,6 +22,8 @@
 
 package com.rivescript;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Interface for RiveScript object handlers.
  *
@@ -47,6 +49,35 @@ public interface ObjectHandler {
 	 */
 	String onCall(String name, String user, String[] args);
 
+	/**
+	 * Handler for when a user invokes the object, with the context of the reply. Should return
+	 * the text reply from the object. By default this calls
+	 * {@link #onCall(String, String, String[])} with the user's id.
+	 *
+	 * @param name    The name of the object being called.
+	 * @param context The context of the reply.
+	 * @param args    The argument list from the call tag.
+	 */
+	default String onCall(String name, ReplyContext context, String[] args) {
+		return onCall(name, context.getUser(), args);
+	}
+
+	/**
+	 * Handler for when a user invokes the object from {@link RiveScript#replyAsync(String, String)}.
+	 * Should return a future of the text reply from the object.
+	 * <p>
+	 * By default this calls {@link #onCall(String, ReplyContext, String[])} and returns its result.
+	 * Handlers that wait on something slow, like another process, can complete the future later
+	 * instead of blocking the thread that replies.
+	 *
+	 * @param name    The name of the object being called.
+	 * @param context The context of the reply.
+	 * @param args    The argument list from the call tag.
+	 */
+	default CompletableFuture<String> onCallAsync(String name, ReplyContext context, String[] args) {
+		return CompletableFuture.completedFuture(onCall(name, context, args));
+	}
+
 	/**
 	 * Sets a Java class to handle the {@link ObjectMacro} directly.
 	 * <p>
@@ -22,6 +22,8 @@
 
 package com.rivescript;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Interface for RiveScript object macros written in Java.
  *
@@ -39,4 +41,35 @@ public interface ObjectMacro {
 	 * @return A string result of the macro.
 	 */
 	String call(RiveScript rivescript, String[] args);
+
+	/**
+	 * The implementation of your object macro function, with the context of the reply.
+	 * <p>
+	 * The context tells which user the reply is for, and what they matched. By default this
+	 * returns the result of {@link #call(RiveScript, String[])}.
+	 *
+	 * @param rivescript A reference to the parent RiveScript instance.
+	 * @param args       An array of the word-arguments from the call tag.
+	 * @param context    The context of the reply.
+	 * @return A string result of the macro.
+	 */
+	default String call(RiveScript rivescript, String[] args, ReplyContext context) {
+		return call(rivescript, args);
+	}
+
+	/**
+	 * The implementation of your object macro function for asynchronous replies.
+	 * <p>
+	 * This code is executed when a {@code <call>} tag in a reply from
+	 * {@link RiveScript#replyAsync(String, String)} wants to call your object macro. By default
+	 * it returns the result of {@link #call(RiveScript, String[], ReplyContext)}.
+	 *
+	 * @param rivescript A reference to the parent RiveScript instance.
+	 * @param args       An array of the word-arguments from the call tag.
+	 * @param context    The context of the reply.
+	 * @return A future of the string result of the macro.
+	 */
+	default CompletableFuture<String> callAsync(RiveScript rivescript, String[] args, ReplyContext context) {
+		return CompletableFuture.completedFuture(call(rivescript, args, context));
+	}
 }
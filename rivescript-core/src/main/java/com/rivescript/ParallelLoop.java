@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a loop body over a range of indexes, splitting the range across a {@link ForkJoinPool}.
+ * Without a pool, or for a range no larger than the grain, the loop runs on the calling thread.
+ */
+abstract class ParallelLoop {
+
+	/**
+	 * Runs the loop body for each index from {@code 0} to {@code size - 1}, and waits for them all.
+	 *
+	 * @param pool  The pool to run on, or {@code null} to run sequentially.
+	 * @param size  The number of indexes.
+	 * @param grain The largest number of indexes a single task runs.
+	 */
+	public void run(ForkJoinPool pool, int size, int grain) {
+		if (pool == null || size <= grain) {
+			for (int i = 0; i < size; i++) {
+				body(i);
+			}
+		} else if (ForkJoinTask.inForkJoinPool()) {
+			// Already on a pool (e.g. sorting a topic), so split the work there.
+			new Range(0, size, grain).invoke();
+		} else {
+			pool.invoke(new Range(0, size, grain));
+		}
+	}
+
+	/**
+	 * The loop body. Runs concurrently for different indexes.
+	 *
+	 * @param index The index.
+	 */
+	protected abstract void body(int index);
+
+	/**
+	 * A task for a range of indexes.
+	 */
+	private class Range extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+		private final int grain;
+
+		Range(int from, int to, int grain) {
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= grain) {
+				for (int i = from; i < to; i++) {
+					body(i);
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Range(from, middle, grain), new Range(middle, to, grain));
+			}
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+/**
+ * The compiled {@code %Previous} patterns of a topic, along with the triggers that follow
+ * each of them.
+ * <p>
+ * Built by {@link RiveScript#sortReplies()} for every topic with a {@code %Previous}, in the
+ * same order as {@link Topic#listPrevious()}. The matches of the patterns against the bot's
+ * last reply are memoized per {@link Client} until the next reply is stored, unless a pattern
+ * depends on user or bot data.
+ */
+public class PreviousIndex {
+
+	private CompiledTrigger[] previous;   // The %Previous patterns
+	private CompiledTrigger[][] triggers; // The triggers that follow each %Previous
+	private boolean dynamic = false;      // Whether any %Previous pattern is dynamic
+
+	/**
+	 * Creates a new %Previous index.
+	 *
+	 * @param previous The compiled {@code %Previous} patterns.
+	 * @param triggers The compiled triggers for each {@code %Previous}, in the same order.
+	 */
+	public PreviousIndex(CompiledTrigger[] previous, CompiledTrigger[][] triggers) {
+		this.previous = previous;
+		this.triggers = triggers;
+		for (int i = 0; i < previous.length; i++) {
+			if (previous[i].isDynamic()) {
+				this.dynamic = true;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of {@code %Previous} patterns.
+	 */
+	public int size() {
+		return previous.length;
+	}
+
+	/**
+	 * Returns a compiled {@code %Previous} pattern.
+	 *
+	 * @param index The index of the pattern.
+	 */
+	public CompiledTrigger getPrevious(int index) {
+		return previous[index];
+	}
+
+	/**
+	 * Returns the compiled triggers that follow a {@code %Previous} pattern.
+	 *
+	 * @param index The index of the pattern.
+	 */
+	public CompiledTrigger[] getTriggers(int index) {
+		return triggers[index];
+	}
+
+	/**
+	 * Returns whether the matches against the bot's last reply can be memoized, i.e. no
+	 * {@code %Previous} pattern depends on user or bot data.
+	 */
+	public boolean isMemoizable() {
+		return !dynamic;
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Supplies the random number generator that picks random replies, {@code {random}} choices
+ * and array items for each reply.
+ * <p>
+ * Use {@link RiveScript#setRandomSource(RandomSource)} to replace the default
+ * {@link #THREAD_LOCAL}, e.g. with a {@link SeededRandomSource} to replay the same choices.
+ */
+public interface RandomSource {
+
+	/**
+	 * Uses the generator of the current thread, so threads replying at the same time don't
+	 * contend for a shared seed. This is the default.
+	 */
+	RandomSource THREAD_LOCAL = new RandomSource() {
+
+		@Override
+		public Random random(Client client, String message) {
+			return ThreadLocalRandom.current();
+		}
+	};
+
+	/**
+	 * Returns the generator for a reply. It's only used by the thread that gets the reply.
+	 *
+	 * @param client  The user's profile.
+	 * @param message The user's message, as it was passed to {@link RiveScript#reply(String, String)}.
+	 */
+	Random random(Client client, String message);
+}
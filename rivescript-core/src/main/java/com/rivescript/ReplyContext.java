@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+import java.util.Random;
+import java.util.Vector;
+
+/**
+ * The state of one reply: who it's for, the brain and random number generator it uses, and what
+ * it matched. A context is created for each message, passed along while replying and to the
+ * object macros, and returned with the reply by {@link RiveScript#replyWithContext(String, String)}.
+ * <p>
+ * Unlike a thread-local, the context stays with the reply when it moves to another thread, e.g.
+ * when an object macro completes asynchronously.
+ */
+public class ReplyContext {
+
+	private final String user;          // The user's id
+	private final Client profile;       // The user's profile
+	private final Brain brain;          // The brain the reply started with
+	private final Random random;        // Picks the random replies
+	private final long started;         // When the reply started (System.nanoTime)
+	private long finished;              // When the reply completed
+	private String match = "";          // The last trigger matched
+	private String[] stars = {};        // The wildcards it matched
+	private int depth = 0;              // The deepest redirect
+	private String reply = null;        // The final reply
+
+	/**
+	 * Creates a context for a reply.
+	 *
+	 * @param user    The user's id.
+	 * @param profile The user's profile.
+	 * @param brain   The brain to reply with.
+	 * @param random  The random number generator for the reply.
+	 */
+	ReplyContext(String user, Client profile, Brain brain, Random random) {
+		this.user = user;
+		this.profile = profile;
+		this.brain = brain;
+		this.random = random;
+		this.started = System.nanoTime();
+	}
+
+	/**
+	 * Returns the id of the user.
+	 */
+	public String getUser() {
+		return user;
+	}
+
+	/**
+	 * Returns the profile of the user.
+	 */
+	public Client getProfile() {
+		return profile;
+	}
+
+	/**
+	 * Returns the brain the reply is made with.
+	 */
+	public Brain getBrain() {
+		return brain;
+	}
+
+	/**
+	 * Returns the random number generator of the reply.
+	 */
+	Random getRandom() {
+		return random;
+	}
+
+	/**
+	 * Returns the trigger the message matched, or {@code ""} if it didn't match any. After a
+	 * redirect, this is the trigger the redirect matched.
+	 */
+	public String getMatch() {
+		return match;
+	}
+
+	/**
+	 * Returns the wildcards of the matched trigger.
+	 */
+	public String[] getStars() {
+		return stars.clone();
+	}
+
+	/**
+	 * Returns how many redirects deep the reply went.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Returns the reply, or {@code null} if it isn't complete yet.
+	 */
+	public String getReply() {
+		return reply;
+	}
+
+	/**
+	 * Returns how long the reply took in nanoseconds, or so far if it isn't complete yet.
+	 */
+	public long getElapsedNanos() {
+		return (reply == null ? System.nanoTime() : finished) - started;
+	}
+
+	/**
+	 * Records the trigger a message matched.
+	 *
+	 * @param trigger The trigger, or {@code ""}.
+	 * @param stars   The wildcards it matched.
+	 * @param step    The recursion depth.
+	 */
+	void match(String trigger, Vector<String> stars, int step) {
+		this.match = trigger;
+		this.stars = Util.Sv2s(stars);
+		this.depth = Math.max(depth, step);
+	}
+
+	/**
+	 * Completes the context with the reply.
+	 *
+	 * @param reply The final reply.
+	 */
+	void finish(String reply) {
+		this.finished = System.nanoTime();
+		this.reply = reply;
+	}
+}
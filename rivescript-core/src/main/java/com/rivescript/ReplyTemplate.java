@@ -0,0 +1,574 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+import java.util.HashMap;
+import java.util.Vector;
+import java.util.regex.Pattern;
+
+/**
+ * A reply (or a redirect, or a side of a condition) compiled into a tree of tag nodes, so
+ * that rendering it for a user is a single walk that appends to one buffer.
+ * <p>
+ * The tags are parsed once: arrays, stars, {@code <input>}/{@code <reply>}, {@code <id>},
+ * {@code {random}}, {@code {!stream}}, the string formatting tags and the {@code <tags>}
+ * (which may be nested, like {@code <set a=<get b>>}) all become nodes. When the reply is
+ * rendered, the {@code {topic}}, {@code {@redirect}} and {@code <call>} tags run after
+ * everything else, in that order, and their results are put in their places.
+ *
+ * @see TagProcessor
+ */
+public class ReplyTemplate {
+
+	private static final Pattern reWeight = Pattern.compile("\\{weight=\\d+\\}");
+	private static final String[] FORMATS = {"person", "formal", "sentence", "uppercase", "lowercase"};
+
+	// The kinds of tags that run last, in the order they run.
+	private static final int TOPIC = 0;
+	private static final int REDIRECT = 1;
+	private static final int CALL = 2;
+
+	private final String source; // The reply, as written
+	private final Node[] nodes;  // The compiled reply
+	private final String text;   // The reply, if it has no tags
+
+	/**
+	 * Compiles a reply.
+	 *
+	 * @param reply  The reply.
+	 * @param arrays The compiled arrays, for {@code (@array)} tags.
+	 */
+	public ReplyTemplate(String reply, HashMap<String, CompiledArray> arrays) {
+		this.source = reply;
+		this.nodes = new Parser(expand(reply), arrays).parse();
+		if (nodes.length == 0) {
+			this.text = "";
+		} else if (nodes.length == 1 && nodes[0] instanceof Text) {
+			this.text = ((Text) nodes[0]).text;
+		} else {
+			this.text = null;
+		}
+	}
+
+	/**
+	 * Returns the reply as it was written.
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * Returns the text of the reply if it has no tags, so it renders the same for everyone.
+	 * Returns {@code null} if it has tags.
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Renders the reply.
+	 *
+	 * @param processor Supplies the data for the tags and runs their side effects.
+	 */
+	public String render(TagProcessor processor) {
+		if (text != null) {
+			return text;
+		}
+		StringBuilder out = new StringBuilder();
+		Vector<Deferred> deferred = new Vector<>();
+		render(nodes, processor, out, deferred);
+		if (deferred.isEmpty()) {
+			return out.toString();
+		}
+
+		// Run the tags that were left for last, then put their results in, from the end back.
+		for (int kind = TOPIC; kind <= CALL; kind++) {
+			for (Deferred tag : deferred) {
+				if (tag.kind == kind) {
+					tag.result = run(kind, tag.argument, processor, true);
+				}
+			}
+		}
+		for (int i = deferred.size() - 1; i >= 0; i--) {
+			out.insert(deferred.get(i).offset, deferred.get(i).result);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Expands the shortcut tags and escape codes, and removes the {@code {weight}} tags.
+	 *
+	 * @param reply The reply.
+	 */
+	private static String expand(String reply) {
+		reply = reply.replace("<person>", "{person}<star>{/person}");
+		reply = reply.replace("<@>", "{@<star>}");
+		reply = reply.replace("<formal>", "{formal}<star>{/formal}");
+		reply = reply.replace("<sentence>", "{sentence}<star>{/sentence}");
+		reply = reply.replace("<uppercase>", "{uppercase}<star>{/uppercase}");
+		reply = reply.replace("<lowercase>", "{lowercase}<star>{/lowercase}");
+		if (reply.indexOf("{weight=") > -1) {
+			reply = reWeight.matcher(reply).replaceAll("");
+		}
+		reply = reply.replace("<input>", "<input1>");
+		reply = reply.replace("<reply>", "<reply1>");
+		reply = reply.replace("\\s", " ");
+		reply = reply.replace("\\n", "\n");
+		return reply;
+	}
+
+	private static void render(Node[] nodes, TagProcessor processor, StringBuilder out, Vector<Deferred> deferred) {
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i].render(processor, out, deferred);
+		}
+	}
+
+	private static String render(Node[] nodes, TagProcessor processor) {
+		StringBuilder out = new StringBuilder();
+		render(nodes, processor, out, null);
+		return out.toString();
+	}
+
+	private static String run(int kind, String argument, TagProcessor processor, boolean output) {
+		if (kind == TOPIC) {
+			processor.topic(argument);
+			return "";
+		} else if (kind == REDIRECT) {
+			return processor.redirect(argument, output);
+		}
+		return processor.call(argument, output);
+	}
+
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	/*-----------*/
+	/*-- Nodes --*/
+	/*-----------*/
+
+	/**
+	 * A tag that runs after the rest of the reply is rendered, and where its result goes.
+	 */
+	private static class Deferred {
+		private int kind;
+		private int offset;
+		private String argument;
+		private String result = "";
+	}
+
+	private static abstract class Node {
+
+		/**
+		 * Renders the node. Tags that run last are added to {@code deferred}, or run right
+		 * away if it's {@code null}.
+		 */
+		abstract void render(TagProcessor processor, StringBuilder out, Vector<Deferred> deferred);
+	}
+
+	private static class Text extends Node {
+		private final String text;
+
+		private Text(String text) {
+			this.text = text;
+		}
+
+		void render(TagProcessor processor, StringBuilder out, Vector<Deferred> deferred) {
+			out.append(text);
+		}
+	}
+
+	/**
+	 * {@code <star>}, {@code <starN>}, {@code <botstar>}, {@code <botstarN>}, {@code <inputN>},
+	 * {@code <replyN>} and {@code <id>}.
+	 */
+	private static class Value extends Node {
+		private final String name;
+		private final int index;
+
+		private Value(String name, int index) {
+			this.name = name;
+			this.index = index;
+		}
+
+		void render(TagProcessor processor, StringBuilder out, Vector<Deferred> deferred) {
+			if (name.equals("star")) {
+				out.append(index > 0 ? processor.star(index) : "");
+			} else if (name.equals("botstar")) {
+				out.append(index > 0 ? processor.botstar(index) : "");
+			} else if (name.equals("input")) {
+				out.append(processor.input(index));
+			} else if (name.equals("reply")) {
+				out.append(processor.reply(index));
+			} else {
+				out.append(processor.id());
+			}
+		}
+	}
+
+	/**
+	 * {@code {random}...{/random}} or an {@code (@array)}: one of the choices, picked at random.
+	 */
+	private static class Choice extends Node {
+		private final Node[][] choices;
+
+		private Choice(Node[][] choices) {
+			this.choices = choices;
+		}
+
+		void render(TagProcessor processor, StringBuilder out, Vector<Deferred> deferred) {
+			if (choices.length > 0) {
+				ReplyTemplate.render(choices[processor.random(choices.length)], processor, out, deferred);
+			}
+		}
+	}
+
+	/**
+	 * The tags that work on the text inside them: {@code {!stream}}, the string formatting
+	 * tags, {@code <tags>}, {@code {topic}}, {@code {@redirect}} and {@code <call>}.
+	 */
+	private static class Tag extends Node {
+		private final String name;
+		private final Node[] body;
+
+		private Tag(String name, Node[] body) {
+			this.name = name;
+			this.body = body;
+		}
+
+		void render(TagProcessor processor, StringBuilder out, Vector<Deferred> deferred) {
+			String text = ReplyTemplate.render(body, processor);
+			if (name == null) {
+				out.append(processor.tag(text));
+			} else if (name.equals("!")) {
+				processor.stream(text);
+			} else if (name.equals("topic") || name.equals("@") || name.equals("call")) {
+				int kind = name.equals("topic") ? TOPIC : name.equals("@") ? REDIRECT : CALL;
+				if (kind == REDIRECT) {
+					text = text.trim();
+				}
+				if (deferred == null) {
+					out.append(run(kind, text, processor, false));
+				} else {
+					Deferred tag = new Deferred();
+					tag.kind = kind;
+					tag.offset = out.length();
+					tag.argument = text;
+					deferred.add(tag);
+				}
+			} else {
+				out.append(processor.transform(name, text));
+			}
+		}
+	}
+
+	/*------------*/
+	/*-- Parser --*/
+	/*------------*/
+
+	/**
+	 * Parses a reply into nodes. A tag that isn't closed is kept as text, the way it was
+	 * always left alone.
+	 */
+	private static class Parser {
+
+		// How a sequence of nodes ended.
+		private static final int END = 0;
+		private static final int CLOSED = 1;
+		private static final int PIPE = 2;
+
+		private final String text;
+		private final HashMap<String, CompiledArray> arrays;
+		private final boolean[] broken; // Where a tag was found not to be closed
+		private int pos = 0;
+		private int stop = END;
+
+		private Parser(String text, HashMap<String, CompiledArray> arrays) {
+			this.text = text;
+			this.arrays = arrays;
+			this.broken = new boolean[text.length()];
+		}
+
+		private Node[] parse() {
+			return sequence(null, false);
+		}
+
+		/**
+		 * Parses nodes up to a closing tag (or a {@code |} in a {@code {random}}), or the end.
+		 *
+		 * @param close The closing tag.
+		 * @param pipe  Whether a {@code |} ends the sequence.
+		 */
+		private Node[] sequence(String close, boolean pipe) {
+			Vector<Frame> frames = new Vector<>();
+			Frame current = new Frame();
+			frames.add(current);
+			int ended = END;
+
+			while (pos < text.length()) {
+				if (close != null && text.startsWith(close, pos)) {
+					pos += close.length();
+					ended = CLOSED;
+					break;
+				}
+				char c = text.charAt(pos);
+				if (pipe && c == '|') {
+					pos++;
+					ended = PIPE;
+					break;
+				}
+
+				Node node = broken[pos] ? null : tag();
+				if (node != null) {
+					current.add(node);
+				} else if (c == '<') {
+					// Maybe the start of a <tag>, which may have others nested inside.
+					current = new Frame();
+					frames.add(current);
+					pos++;
+				} else if (c == '>' && frames.size() > 1 && !current.isEmpty()) {
+					Node[] body = current.nodes();
+					frames.remove(frames.size() - 1);
+					current = frames.lastElement();
+					current.add(new Tag(null, body));
+					pos++;
+				} else {
+					current.append(c);
+					pos++;
+				}
+			}
+
+			// Any < that wasn't closed is just text.
+			while (frames.size() > 1) {
+				Frame frame = frames.remove(frames.size() - 1);
+				current = frames.lastElement();
+				current.append('<');
+				current.addAll(frame);
+			}
+			stop = ended;
+			return current.nodes();
+		}
+
+		/**
+		 * Parses the tag at the current position, if there is one.
+		 */
+		private Node tag() {
+			int start = pos;
+			char c = text.charAt(pos);
+			Node node = null;
+			if (c == '<') {
+				node = value();
+				if (node == null && text.startsWith("<call>", pos)) {
+					node = body("call", 6, "</call>");
+				}
+			} else if (c == '{') {
+				if (text.startsWith("{random}", pos)) {
+					node = random();
+				} else if (text.startsWith("{!", pos)) {
+					node = body("!", 2, "}");
+				} else if (text.startsWith("{topic=", pos)) {
+					node = body("topic", 7, "}");
+				} else if (text.startsWith("{@", pos)) {
+					node = body("@", 2, "}");
+				} else {
+					for (int i = 0; i < FORMATS.length && node == null; i++) {
+						if (text.startsWith("{" + FORMATS[i] + "}", pos)) {
+							node = body(FORMATS[i], FORMATS[i].length() + 2, "{/" + FORMATS[i] + "}");
+						}
+					}
+				}
+			} else if (c == '(' && text.startsWith("(@", pos)) {
+				node = array();
+			}
+
+			if (node == null) {
+				pos = start;
+				if (c == '{' || c == '(' || text.startsWith("<call>", pos)) {
+					broken[start] = true;
+				}
+			}
+			return node;
+		}
+
+		/**
+		 * Parses a tag with a body, up to its closing tag.
+		 */
+		private Node body(String name, int open, String close) {
+			int start = pos;
+			pos += open;
+			Node[] body = sequence(close, false);
+			if (stop != CLOSED || !isBody(name, start + open, pos - close.length())) {
+				return null;
+			}
+			return new Tag(name, body);
+		}
+
+		private Node random() {
+			int start = pos;
+			pos += 8;
+			Vector<Node[]> choices = new Vector<>();
+			do {
+				choices.add(sequence("{/random}", true));
+			} while (stop == PIPE);
+			if (stop != CLOSED || !isBody("random", start + 8, pos - 9)) {
+				return null;
+			}
+
+			// Empty choices at the end don't count.
+			while (!choices.isEmpty() && choices.lastElement().length == 0) {
+				choices.remove(choices.size() - 1);
+			}
+			return new Choice(choices.toArray(new Node[choices.size()][]));
+		}
+
+		/**
+		 * Returns whether the text between a tag and its closing tag is a valid body: not
+		 * empty, and on one line (but a redirect can be empty, or span lines).
+		 */
+		private boolean isBody(String name, int from, int to) {
+			if (name.equals("@")) {
+				return true;
+			} else if (to <= from) {
+				return false;
+			}
+			for (int i = from; i < to; i++) {
+				if (isLineTerminator(text.charAt(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Parses an {@code (@array)} into a random choice of its items, each compiled too.
+		 */
+		private Node array() {
+			int end = pos + 2;
+			while (end < text.length() && isName(text.charAt(end))) {
+				end++;
+			}
+			if (end == pos + 2 || end == text.length() || text.charAt(end) != ')') {
+				return null;
+			}
+			String name = text.substring(pos + 2, end);
+			if (arrays == null || !arrays.containsKey(name)) {
+				return null;
+			}
+
+			CompiledArray array = arrays.get(name);
+			Node[][] choices = new Node[array.size()][];
+			for (int i = 0; i < choices.length; i++) {
+				choices[i] = new Parser(expand(array.get(i)), null).parse();
+			}
+			pos = end + 1;
+			return new Choice(choices);
+		}
+
+		/**
+		 * Parses a {@code <star>}, {@code <botstar>}, {@code <input>}, {@code <reply>} or
+		 * {@code <id>} tag.
+		 */
+		private Node value() {
+			if (text.startsWith("<id>", pos)) {
+				pos += 4;
+				return new Value("id", 0);
+			}
+			String[] names = {"star", "botstar", "input", "reply"};
+			for (int i = 0; i < names.length; i++) {
+				if (!text.startsWith(names[i], pos + 1)) {
+					continue;
+				}
+				int from = pos + 1 + names[i].length();
+				int end = from;
+				while (end < text.length() && text.charAt(end) >= '0' && text.charAt(end) <= '9') {
+					end++;
+				}
+				if (end == text.length() || text.charAt(end) != '>') {
+					return null;
+				}
+				String digits = text.substring(from, end);
+				int index;
+				if (i < 2) {
+					// <star> is <star1>; an index that isn't written plainly matches nothing.
+					if (digits.length() == 0) {
+						index = 1;
+					} else if (digits.length() > 9 || (digits.length() > 1 && digits.charAt(0) == '0')) {
+						index = 0;
+					} else {
+						index = Integer.parseInt(digits);
+					}
+				} else if (digits.length() == 1) {
+					index = digits.charAt(0) - '0';
+				} else {
+					return null;
+				}
+				pos = end + 1;
+				return new Value(names[i], index);
+			}
+			return null;
+		}
+
+		private static boolean isName(char c) {
+			return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+		}
+	}
+
+	/**
+	 * The nodes of a sequence, or of a {@code <tag>} being parsed.
+	 */
+	private static class Frame {
+		private Vector<Node> nodes = new Vector<>();
+		private StringBuilder text = new StringBuilder();
+
+		private void append(char c) {
+			text.append(c);
+		}
+
+		private void add(Node node) {
+			flush();
+			nodes.add(node);
+		}
+
+		private void addAll(Frame frame) {
+			frame.flush();
+			flush();
+			nodes.addAll(frame.nodes);
+		}
+
+		private boolean isEmpty() {
+			return nodes.isEmpty() && text.length() == 0;
+		}
+
+		private Node[] nodes() {
+			flush();
+			return nodes.toArray(new Node[nodes.size()]);
+		}
+
+		private void flush() {
+			if (text.length() > 0) {
+				nodes.add(new Text(text.toString()));
+				text.setLength(0);
+			}
+		}
+	}
+}
@@ -34,11 +34,20 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Random;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import static java.util.Objects.requireNonNull;
+
 /**
  * A RiveScript interpreter written in Java.
  * <p>
@@ -61,16 +70,35 @@ import java.util.regex.Pattern;
  * String reply = rs.reply("user", "Hello bot!");
  * </code>
  * </pre>
+ * <p>
+ * Once the replies are sorted, {@link #reply(String, String)} can be called from several threads
+ * at once. Each user's messages are handled one at a time, in order, while different users are
+ * replied to concurrently. The user's turn lasts until the reply is done, object macros
+ * included, so a macro may ask for another reply to the same user, but two macros that wait for
+ * replies to each other's users would deadlock. {@link #replyAsync(String, String)} queues a
+ * user's messages too, so each one is handled after the previous one completed; a macro mustn't
+ * wait for an async reply to its own user.
+ * <p>
+ * Replies can be loaded, streamed (also by a {@code {!stream}} tag) and sorted while the bot
+ * replies. Those take turns with each other, and replies keep using the brain published by
+ * the last {@link #sortReplies()} until the next one publishes a new brain.
+ * <p>
+ * To share one brain between several interpreters, e.g. with their own users, load the
+ * replies once and {@link #compile()} them, then create a read-only interpreter for each
+ * with {@link #RiveScript(Brain)}. To reload the replies, compile them again and hand the new
+ * brain to {@link #setBrain(Brain)}, which keeps the users.
  *
  * @author Noah Petherbridge
  */
 public class RiveScript {
 
 	// Private class variables.
-	private boolean debug = false;             // Debug mode
-	private int depth = 50;                    // Recursion depth limit
+	private volatile boolean debug = false;    // Debug mode
+	private volatile int depth = 50;           // Recursion depth limit
+	private boolean unicode = false;           // Keep non-ASCII letters in messages
+	private MatchEngine matchEngine;           // Builds the trigger matchers
 	private String error = "";                 // Last error text
-	private static Random rand = new Random(); // A random number generator
+	private volatile RandomSource randomSource = RandomSource.THREAD_LOCAL; // Random number generators for the replies
 
 	// Constant RiveScript command symbols.
 	private static final double RS_VERSION = 2.0; // This implements RiveScript 2.0
@@ -83,6 +111,7 @@ public class RiveScript {
 	private static final String CMD_CONDITION = "*";
 	private static final String CMD_LABEL = ">";
 	private static final String CMD_ENDLABEL = "<";
+	private static final Pattern reNonWord = Pattern.compile("[^a-z0-9 ]+"); // strips <input>, <reply> and the trigger holes
 
 	// The topic data structure, and the "thats" data structure.
 	private TopicManager topics = new TopicManager();
@@ -91,20 +120,40 @@ public class RiveScript {
 	private ClientManager clients = new ClientManager();
 
 	// Object handlers
-	private HashMap<String, ObjectHandler> handlers = new HashMap<>();
-	private HashMap<String, String> objects = new HashMap<>();        // name->language mappers
+	private ConcurrentHashMap<String, ObjectHandler> handlers = new ConcurrentHashMap<>();
+	private ConcurrentHashMap<String, String> objects = new ConcurrentHashMap<>(); // name->language mappers
+	private HashMap<String, String[]> sources = new HashMap<>();      // name->code of the inline objects
+	private boolean readOnly = false;                                 // whether the brain was compiled elsewhere
 
 	// Simpler internal data structures.
 	private Vector<String> vTopics = new Vector<>();                  // vector containing topic list (for quicker lookups)
-	private HashMap<String, String> globals = new HashMap<>();        // ! global
-	private HashMap<String, String> vars = new HashMap<>();           // ! var
-	private HashMap<String, Vector<String>> arrays = new HashMap<>(); // ! array
+	private ConcurrentHashMap<String, String> globals = new ConcurrentHashMap<>();        // ! global
+	private ConcurrentHashMap<String, String> vars = new ConcurrentHashMap<>();           // ! var
+	private ConcurrentHashMap<String, Vector<String>> arrays = new ConcurrentHashMap<>(); // ! array
+	private HashMap<String, CompiledArray> arrays_c = new HashMap<>(); // compiled arrays (at sort time)
+	private HashMap<String, ReplyTemplate> templates_c = new HashMap<>(); // compiled replies (at sort time)
+	private HashMap<String, Condition> conditions_c = new HashMap<>();    // compiled conditions (at sort time)
+	private HashMap<Trigger, CompiledReplies> replies_c = new HashMap<>(); // frozen replies (at sort time)
+	private HashMap<String, CompiledTopic> topics_c = new HashMap<>();    // compiled topics (at sort time)
+	private ConcurrentHashMap<String, CompiledTrigger> triggers_c = new ConcurrentHashMap<>(); // compiled triggers (at sort time)
+	private boolean compileAll = true;                                // whether the next sort recompiles every topic
+	private volatile ForkJoinPool sortPool = null;                    // sorts the topics in parallel, if set
+	private volatile Executor replyExecutor = ForkJoinPool.commonPool(); // runs the asynchronous replies
 	private HashMap<String, String> subs = new HashMap<>();           // ! sub
 	private String[] subs_s = null;                                   // sorted subs
+	private Substituter subs_c = null;                                // compiled subs
+	private Normalizer normalizer = null;                             // formats messages with the subs
 	private HashMap<String, String> person = new HashMap<>();         // ! person
 	private String[] person_s = null;                                 // sorted persons
+	private Substituter person_c = null;                              // compiled persons
 
-	// The current user ID when reply() is called.
+	// The brain the replies are read from, published by sortReplies().
+	private AtomicReference<Brain> brain = new AtomicReference<>();
+
+	// Held while loading, sorting or changing the replies, so those happen one at a time.
+	private final ReentrantLock builder = new ReentrantLock();
+
+	// The current user ID while an object macro is called, for currentUser().
 	private ThreadLocal<String> currentUser = new ThreadLocal<>();
 
 	/*-------------------------*/
@@ -117,7 +166,19 @@ public class RiveScript {
 	 * @param debug Enable debug mode (a *lot* of stuff is printed to the terminal)
 	 */
 	public RiveScript(boolean debug) {
+		this(debug, MatchEngine.REGEXP);
+	}
+
+	/**
+	 * Creates a new RiveScript interpreter object, specifying the debug mode and the
+	 * {@link MatchEngine} used to match messages against the triggers.
+	 *
+	 * @param debug  Enable debug mode (a *lot* of stuff is printed to the terminal)
+	 * @param engine The match engine, e.g. {@link MatchEngine#AUTOMATON}.
+	 */
+	public RiveScript(boolean debug, MatchEngine engine) {
 		this.debug = debug;
+		this.matchEngine = engine;
 
 		// Set static debug modes.
 		Topic.setDebug(this.debug);
@@ -133,6 +194,24 @@ public class RiveScript {
 		this(false);
 	}
 
+	/**
+	 * Creates a read-only RiveScript interpreter object that replies with a brain compiled by
+	 * another interpreter. The brain is shared, not copied; the users and their variables are
+	 * this interpreter's own. Replies can't be loaded or sorted, but the brain can be replaced
+	 * with {@link #setBrain(Brain)}.
+	 * <p>
+	 * The inline object macros of the brain are loaded into the handlers of this interpreter as
+	 * they're added with {@link #setHandler(String, ObjectHandler)}. Java object macros have to
+	 * be defined again with {@link #setSubroutine(String, ObjectMacro)}.
+	 *
+	 * @param brain The brain returned by {@link #compile()}.
+	 */
+	public RiveScript(Brain brain) {
+		this(false);
+		this.readOnly = true;
+		setBrain(brain);
+	}
+
 	/*-------------------*/
 	/*-- Error Methods --*/
 	/*-------------------*/
@@ -259,7 +338,12 @@ public class RiveScript {
 		String[] code = Util.Sv2s(lines);
 
 		// Send the code to the parser.
-		return parse(file, code);
+		builder.lock();
+		try {
+			return parse(file, code);
+		} finally {
+			builder.unlock();
+		}
 	}
 
 	/**
@@ -273,7 +357,7 @@ public class RiveScript {
 		String[] lines = code.split("\n");
 
 		// Send the lines to the parser.
-		return parse("(streamed)", lines);
+		return stream(lines);
 	}
 
 	/**
@@ -284,7 +368,12 @@ public class RiveScript {
 	 */
 	public boolean stream(String[] code) {
 		// The coder has already broken the lines for us!
-		return parse("(streamed)", code);
+		builder.lock();
+		try {
+			return parse("(streamed)", code);
+		} finally {
+			builder.unlock();
+		}
 	}
 
 	/*---------------------------*/
@@ -299,6 +388,138 @@ public class RiveScript {
 	 */
 	public void setHandler(String name, ObjectHandler handler) {
 		this.handlers.put(name, handler);
+		if (readOnly) {
+			loadObjects(brain.get(), name);
+		}
+	}
+
+	/**
+	 * Loads the inline object macros of a compiled brain into the handler of their language.
+	 *
+	 * @param brain The compiled brain.
+	 * @param lang  The programming language.
+	 */
+	private void loadObjects(Brain brain, String lang) {
+		for (Map.Entry<String, String> object : brain.getObjects().entrySet()) {
+			if (object.getValue().equals(lang)) {
+				handlers.get(lang).onLoad(object.getKey(), brain.getSource(object.getKey()));
+				objects.put(object.getKey(), lang);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the brain of a read-only interpreter with another one compiled by
+	 * {@link #compile()}, e.g. after the replies were edited and compiled again. The users and
+	 * their variables are kept, while the bot variables, globals and inline object macros become
+	 * the brain's. Replies that already started finish with the previous brain, though they
+	 * may see the new bot variables.
+	 * <p>
+	 * Returns {@code false} on an interpreter that loads its own replies.
+	 *
+	 * @param brain The brain returned by {@link #compile()}.
+	 */
+	public boolean setBrain(Brain brain) {
+		requireNonNull(brain, "'brain' must not be null");
+		if (!readOnly) {
+			return error("Can't set the brain of an interpreter that sorts its own replies");
+		}
+		builder.lock();
+		try {
+			// Copy the bot's definitions, and drop the ones the brain doesn't have.
+			globals.keySet().retainAll(brain.getGlobals().keySet());
+			for (Map.Entry<String, String> global : brain.getGlobals().entrySet()) {
+				setGlobal(global.getKey(), global.getValue());
+			}
+			vars.keySet().retainAll(brain.getVariables().keySet());
+			vars.putAll(brain.getVariables());
+
+			// Load the objects into the handlers before the brain calls them.
+			Brain previous = this.brain.get();
+			if (previous != null) {
+				for (String name : previous.getObjects().keySet()) {
+					if (!brain.getObjects().containsKey(name)) {
+						objects.remove(name);
+					}
+				}
+			}
+			for (String lang : handlers.keySet()) {
+				loadObjects(brain, lang);
+			}
+			this.brain.set(brain);
+		} finally {
+			builder.unlock();
+		}
+		return true;
+	}
+
+	/**
+	 * Sets the {@link MatchEngine} used to match messages against the triggers of each topic.
+	 * Takes effect the next time {@link #sortReplies()} is called.
+	 *
+	 * @param engine The match engine, e.g. {@link MatchEngine#WORD_TREE}.
+	 */
+	public void setMatchEngine(MatchEngine engine) {
+		builder.lock();
+		try {
+			this.matchEngine = engine;
+			this.compileAll = true;
+		} finally {
+			builder.unlock();
+		}
+	}
+
+	/**
+	 * Sets the {@link RandomSource} that picks random replies. The default,
+	 * {@link RandomSource#THREAD_LOCAL}, uses a generator per thread; a
+	 * {@link SeededRandomSource} makes the choices repeatable.
+	 *
+	 * @param source The random source.
+	 */
+	public void setRandomSource(RandomSource source) {
+		this.randomSource = source;
+	}
+
+	/**
+	 * Sets a {@link ForkJoinPool} for {@link #sortReplies()} to sort and compile independent
+	 * topics on concurrently. The replies are sorted the same way as without a pool, which is
+	 * the default.
+	 *
+	 * @param pool The pool, or {@code null} to sort on the calling thread.
+	 */
+	public void setSortPool(ForkJoinPool pool) {
+		this.sortPool = pool;
+	}
+
+	/**
+	 * Sets the {@link Executor} that {@link #replyAsync(String, String)} runs the replies on.
+	 * The default is the common {@link ForkJoinPool}. When object macros block, an executor with
+	 * a thread per task fits better, e.g. one that starts a virtual thread for each reply.
+	 *
+	 * @param executor The executor.
+	 */
+	public void setReplyExecutor(Executor executor) {
+		this.replyExecutor = executor;
+	}
+
+	/**
+	 * Sets Unicode mode. By default, everything but {@code a-z}, {@code 0-9}, underscores and
+	 * spaces is stripped from the user's message before matching. In Unicode mode, the
+	 * letters and digits of every other script are kept as well.
+	 *
+	 * @param unicode Whether to enable Unicode mode.
+	 */
+	public void setUnicode(boolean unicode) {
+		builder.lock();
+		try {
+			this.unicode = unicode;
+			if (subs_c != null) {
+				normalizer = new Normalizer(subs_c, unicode);
+				publishSubstitutions();
+			}
+		} finally {
+			builder.unlock();
+		}
 	}
 
 	/**
@@ -404,10 +625,26 @@ public class RiveScript {
 	 * @param output  The text to replace it with (must be lowercase, no special characters).
 	 */
 	public boolean setSubstitution(String pattern, String output) {
-		if (output == null || output == "<undef>") {
-			subs.remove(pattern);
-		} else {
-			subs.put(pattern, output);
+		if (readOnly) {
+			return error("Can't set substitutions on a read-only brain");
+		}
+		builder.lock();
+		try {
+			if (output == null || output == "<undef>") {
+				subs.remove(pattern);
+			} else {
+				subs.put(pattern, output);
+			}
+
+			// Recompile them if the replies were already sorted.
+			if (subs_c != null) {
+				subs_s = Util.sortByLength(Util.SSh2s(subs));
+				subs_c = new Substituter(subs_s, subs);
+				normalizer = new Normalizer(subs_c, unicode);
+				publishSubstitutions();
+			}
+		} finally {
+			builder.unlock();
 		}
 
 		return true;
@@ -424,10 +661,25 @@ public class RiveScript {
 	 * @param output  The text to replace it with (must be lowercase, no special characters).
 	 */
 	public boolean setPersonSubstitution(String pattern, String output) {
-		if (output == null || output == "<undef>") {
-			person.remove(pattern);
-		} else {
-			person.put(pattern, output);
+		if (readOnly) {
+			return error("Can't set substitutions on a read-only brain");
+		}
+		builder.lock();
+		try {
+			if (output == null || output == "<undef>") {
+				person.remove(pattern);
+			} else {
+				person.put(pattern, output);
+			}
+
+			// Recompile them if the replies were already sorted.
+			if (person_c != null) {
+				person_s = Util.sortByLength(Util.SSh2s(person));
+				person_c = new Substituter(person_s, person);
+				publishSubstitutions();
+			}
+		} finally {
+			builder.unlock();
 		}
 
 		return true;
@@ -475,8 +727,8 @@ public class RiveScript {
 	}
 
 	/**
-	 * Returns a listing of all the uservars for a user as a {@link HashMap}.
-	 * Returns {@code null} if the user doesn't exist.
+	 * Returns a listing of all the uservars for a user as a {@link HashMap}, a snapshot that
+	 * replies don't change. Returns {@code null} if the user doesn't exist.
 	 *
 	 * @param user The user ID to get the vars for.
 	 */
@@ -512,11 +764,16 @@ public class RiveScript {
 	 * currently executing the macro (for example, to get/set variables for
 	 * them).
 	 * <p>
-	 * This function is only available during a reply context; outside of
-	 * that it will return {@code null}.
+	 * This function is only available to object macros while they're called
+	 * on the thread that replies; outside of that it will return {@code null}.
+	 * It isn't available to object macros that complete asynchronously on
+	 * another thread either.
 	 *
 	 * @return string user id or {@code null}.
+	 * @deprecated Use the {@link ReplyContext} passed to
+	 * {@link ObjectMacro#call(RiveScript, String[], ReplyContext)} instead.
 	 */
+	@Deprecated
 	public String currentUser() {
 		return this.currentUser.get();
 	}
@@ -539,6 +796,10 @@ public class RiveScript {
 	 * @param code     The string array of all the code to parse.
 	 */
 	protected boolean parse(String filename, String[] code) {
+		if (readOnly) {
+			return error(filename + ": can't load replies into a read-only brain");
+		}
+
 		// Track some state variables for this parsing round.
 		String topic = "random";        // Default topic = random
 		int lineno = 0;
@@ -569,8 +830,12 @@ public class RiveScript {
 				if (line.startsWith("<object") || line.startsWith("< object")) { // TODO regexp
 					// End of the object. Did we have a handler?
 					if (handlers.containsKey(objLang)) {
-						// Yes, call the handler's onLoad function.
-						handlers.get(objLang).onLoad(objName, Util.Sv2s(objBuff));
+						// Yes, call the handler's onLoad function, and keep the code for
+						// the interpreters created from the compiled brain.
+						String[] source = Util.Sv2s(objBuff);
+						if (handlers.get(objLang).onLoad(objName, source)) {
+							sources.put(objName, source);
+						}
 
 						// Map the name to the language.
 						objects.put(objName, objLang);
@@ -765,6 +1030,7 @@ public class RiveScript {
 					// Deleting it?
 					if (delete) {
 						arrays.remove(var);
+						compileAll = true;
 						continue;
 					}
 
@@ -788,6 +1054,7 @@ public class RiveScript {
 
 					// Store this array.
 					arrays.put(var, items);
+					compileAll = true;
 				} else if (type.equals("sub")) {
 					// Set a substitution.
 					say("\tSubstitution " + var + " => " + value);
@@ -914,6 +1181,7 @@ public class RiveScript {
 
 				// Add the reply to the trigger.
 				topics.topic(topic).trigger(onTrig).addReply(line);
+				topics.topic(topic).setDirty(true);
 			} else if (cmd.equals(CMD_PREVIOUS)) {
 				// % PREVIOUS
 				// This was handled above.
@@ -933,6 +1201,7 @@ public class RiveScript {
 				// Add the redirect to the trigger.
 				// TODO: this extends RiveScript, not compat w/ Perl yet
 				topics.topic(topic).trigger(onTrig).addRedirect(line);
+				topics.topic(topic).setDirty(true);
 			} else if (cmd.equals(CMD_CONDITION)) {
 				// * CONDITION
 				say("\t* CONDITION: " + line);
@@ -945,6 +1214,7 @@ public class RiveScript {
 
 				// Add the condition to the trigger.
 				topics.topic(topic).trigger(onTrig).addCondition(line);
+				topics.topic(topic).setDirty(true);
 			} else {
 				cry("Unrecognized command \"" + cmd + "\"", filename, lineno);
 			}
@@ -960,18 +1230,174 @@ public class RiveScript {
 	/**
 	 * Sorts the replies. This should be called after loading the replies in memory
 	 * to (re)initialize internal sort buffers. This is necessary for accurate trigger matching.
+	 * <p>
+	 * Only the topics that changed since the last sort are sorted again, along with the topics
+	 * that include or inherit them. Changing an array or the match engine sorts every topic.
 	 */
 	public void sortReplies() {
-		// We need to make sort buffers under each topic.
-		String[] topics = this.topics.listTopics();
+		if (readOnly) {
+			cry("Can't sort the replies of a read-only brain");
+			return;
+		}
+
+		builder.lock();
+		try {
+			sort();
+		} finally {
+			builder.unlock();
+		}
+	}
+
+	/**
+	 * Sorts the replies and publishes the new brain, with the builder lock held.
+	 */
+	private void sort() {
+		// A changed array or match engine affects every topic.
+		if (compileAll) {
+			this.topics.setDirty();
+			arrays_c = new HashMap<>();
+			for (String name : arrays.keySet()) {
+				arrays_c.put(name, new CompiledArray(arrays.get(name)));
+			}
+			templates_c = new HashMap<>();
+			conditions_c = new HashMap<>();
+			replies_c = new HashMap<>();
+			triggers_c = new ConcurrentHashMap<>();
+		}
+
+		// Tell the topic manager to sort the replies of the topics that changed, and the
+		// topics that include or inherit them.
+		String[] topics = this.topics.sortReplies(sortPool);
 		say("There are " + topics.length + " topics to sort replies for.");
 
-		// Tell the topic manager to sort its topics' replies.
-		this.topics.sortReplies();
+		// Compile the replies, redirects and conditions of the sorted topics.
+		HashMap<String, ReplyTemplate> templates = new HashMap<>(templates_c);
+		HashMap<String, Condition> conditions = new HashMap<>(conditions_c);
+		HashMap<Trigger, CompiledReplies> replies = new HashMap<>(replies_c);
+		for (int i = 0; i < topics.length; i++) {
+			Topic topic = this.topics.topic(topics[i]);
+			String[] triggers = topic.listTriggers(true);
+			for (int j = 0; j < triggers.length; j++) {
+				Trigger trigger = topic.trigger(triggers[j]);
+				for (String reply : trigger.listReplies()) {
+					compileTemplate(templates, reply);
+				}
+				for (String redirect : trigger.listRedirects()) {
+					compileTemplate(templates, redirect.replaceAll("\\{weight=\\d+\\}", ""));
+				}
+				String[] sources = trigger.listConditions();
+				Condition[] compiled = new Condition[sources.length];
+				for (int k = 0; k < sources.length; k++) {
+					compiled[k] = conditions.get(sources[k]);
+					if (compiled[k] != null) {
+						continue;
+					}
+					Condition condition = new Condition(sources[k], arrays_c);
+					if (!condition.isValid()) {
+						cry("Malformed condition in trigger " + triggers[j] + ": " + sources[k]);
+					} else {
+						compileTemplate(templates, condition.getReply());
+					}
+					conditions.put(sources[k], condition);
+					compiled[k] = condition;
+				}
+				replies.put(trigger, new CompiledReplies(trigger, compiled));
+			}
+		}
+		templates_c = templates;
+		conditions_c = conditions;
+		replies_c = replies;
+
+		// Precompile the regexps for the sorted triggers and build their matchers.
+		final String[] names = topics;
+		new ParallelLoop() {
+			@Override
+			protected void body(int i) {
+				Topic topic = RiveScript.this.topics.topic(names[i]);
+				CompiledTrigger[] compiled = compileTriggers(topic.listTriggers());
+				topic.setCompiledTriggers(compiled, matchEngine.compile(compiled, arrays_c));
+
+				// And the ones for the %Previous's.
+				if (topic.hasPrevious()) {
+					String[] previous = topic.listPrevious();
+					CompiledTrigger[][] triggers = new CompiledTrigger[previous.length][];
+					for (int j = 0; j < previous.length; j++) {
+						triggers[j] = compileTriggers(topic.listPreviousTriggers(previous[j]));
+					}
+					topic.setPreviousIndex(new PreviousIndex(compileTriggers(previous), triggers));
+				}
+			}
+		}.run(sortPool, names.length, 1);
+		compileAll = false;
 
 		// Sort the substitutions.
 		subs_s = Util.sortByLength(Util.SSh2s(subs));
+		subs_c = new Substituter(subs_s, subs);
+		normalizer = new Normalizer(subs_c, unicode);
 		person_s = Util.sortByLength(Util.SSh2s(person));
+		person_c = new Substituter(person_s, person);
+
+		// Freeze the sorted topics into a new brain, and publish it for the next replies.
+		HashMap<String, CompiledTopic> compiledTopics = new HashMap<>(topics_c);
+		for (int i = 0; i < topics.length; i++) {
+			compiledTopics.put(topics[i], new CompiledTopic(this.topics.topic(topics[i]), replies_c));
+		}
+		topics_c = compiledTopics;
+		brain.set(new Brain(topics_c, arrays_c, templates_c, normalizer, person_c));
+	}
+
+	/**
+	 * Sorts the replies, and returns the resulting brain with the bot variables, globals and
+	 * inline object macros. Pass it to {@link #RiveScript(Brain)} to create read-only
+	 * interpreters that share it.
+	 * <p>
+	 * The brain is a snapshot: replies loaded into this interpreter afterwards need to be
+	 * compiled again.
+	 */
+	public Brain compile() {
+		builder.lock();
+		try {
+			sortReplies();
+			HashMap<String, String> inline = new HashMap<>();
+			for (String name : sources.keySet()) {
+				inline.put(name, objects.get(name));
+			}
+			return brain.get().withDefinitions(vars, globals, inline, sources);
+		} finally {
+			builder.unlock();
+		}
+	}
+
+	/**
+	 * Publishes a copy of the brain with the current substitutions, if the replies were sorted.
+	 */
+	private void publishSubstitutions() {
+		Brain current = brain.get();
+		if (current != null) {
+			brain.set(current.withSubstitutions(normalizer, person_c));
+		}
+	}
+
+	/**
+	 * Compiles the regexps for a sorted list of triggers. Triggers that depend on user or
+	 * bot data at match time are compiled into a {@link TriggerTemplate} instead. Compiled
+	 * triggers are kept until the next full sort, and shared between topics.
+	 *
+	 * @param triggers The sorted triggers.
+	 */
+	private CompiledTrigger[] compileTriggers(String[] triggers) {
+		CompiledTrigger[] compiled = new CompiledTrigger[triggers.length];
+		for (int i = 0; i < triggers.length; i++) {
+			compiled[i] = triggers_c.get(triggers[i]);
+			if (compiled[i] == null) {
+				compiled[i] = new CompiledTrigger(triggers[i], new TriggerTemplate(triggerRegexp(triggers[i])));
+				CompiledTrigger other = triggers_c.putIfAbsent(triggers[i], compiled[i]);
+				if (other != null) {
+					compiled[i] = other;
+				}
+			}
+		}
+		return compiled;
 	}
 
 	/*---------------------*/
@@ -979,33 +1405,93 @@ public class RiveScript {
 	/*---------------------*/
 
 	/**
-	 * Returns a reply from the RiveScript interpreter.
+	 * Returns a reply from the RiveScript interpreter. Replies to the same user are
+	 * handled one at a time; replies to different users run concurrently.
 	 *
 	 * @param username The unique user id for the user chatting with the bot.
 	 * @param message  The user's message to the bot.
 	 */
 	public String reply(String username, String message) {
-		say("Get reply to [" + username + "] " + message);
+		return reply(username, message, false).join().getReply();
+	}
 
-		// Store the current ID in case an object macro wants it.
-		this.currentUser.set(username);
+	/**
+	 * Returns a reply from the RiveScript interpreter along with its {@link ReplyContext}, which
+	 * tells the trigger it matched, its wildcards and how long it took.
+	 *
+	 * @param username The unique user id for the user chatting with the bot.
+	 * @param message  The user's message to the bot.
+	 */
+	public ReplyContext replyWithContext(String username, String message) {
+		return reply(username, message, false).join();
+	}
 
+	/**
+	 * Returns a future of a reply from the RiveScript interpreter, which runs on the executor
+	 * set with {@link #setReplyExecutor(Executor)}. Replies to different users run concurrently.
+	 * <p>
+	 * The object macros whose results go straight into the reply are called with
+	 * {@link ObjectHandler#onCallAsync(String, ReplyContext, String[])}, and the reply completes once
+	 * they all did. The user's history is updated then too. A macro that completes with
+	 * {@code null} adds nothing to the reply, and one that fails adds an {@code [ERR: ...]} text,
+	 * like in {@link #reply(String, String)}. Object macros that complete later don't keep a
+	 * thread or the user's lock while they run.
+	 * <p>
+	 * The async replies to a user are queued: each one starts after the previous one completed,
+	 * so they see each other's variables and history in the order they were asked for. A
+	 * {@link #reply(String, String)} to the user isn't queued with them, and may run between
+	 * them. An object macro must not wait for an async reply to its own user, which is queued
+	 * behind the reply that called it.
+	 *
+	 * @param username The unique user id for the user chatting with the bot.
+	 * @param message  The user's message to the bot.
+	 */
+	public CompletableFuture<String> replyAsync(final String username, final String message) {
+		// Start after the user's previous async reply completed, object macros and all.
+		final CompletableFuture<Void> done = new CompletableFuture<>();
+		CompletableFuture<Void> previous = clients.client(username).queueAsync(done);
+		CompletableFuture<ReplyContext> reply = previous.thenComposeAsync(
+				ignored -> reply(username, message, true), replyExecutor);
+		reply.whenComplete((context, error) -> done.complete(null));
+		return reply.thenApply(ReplyContext::getReply);
+	}
+
+	/**
+	 * Gets a reply for the user. Without {@code async}, the future is always completed.
+	 *
+	 * @param username The unique user id for the user chatting with the bot.
+	 * @param message  The user's message to the bot.
+	 * @param async    Whether the object macros in the reply may complete later.
+	 */
+	private CompletableFuture<ReplyContext> reply(String username, String message, boolean async) {
+		say("Get reply to [" + username + "] " + message);
+
+		// Handle one message per user at a time, so their variables and history stay in order.
+		Client profile = clients.client(username);
+		ReentrantLock lock = profile.getLock();
+		lock.lock();
 		try {
+			// Reply with the latest brain, even if a new one is published meanwhile.
+			ReplyContext context = new ReplyContext(username, profile, brain.get(),
+					randomSource.random(profile, message));
+
+			// Collect the object macros that complete later.
+			Vector<CompletableFuture<String>> calls = async ? new Vector<CompletableFuture<String>>() : null;
 
 			// Format their message first.
-			message = formatMessage(message);
+			message = formatMessage(context.getBrain(), message);
 
 			// This will hold the final reply.
 			String reply;
 
 			// If the BEGIN statement exists, consult it first.
-			if (topics.exists("__begin__")) {
-				String begin = this.reply(username, "request", true, 0);
+			if (context.getBrain().exists("__begin__")) {
+				String begin = this.reply(context, "request", true, 0, calls);
 
 				// OK to continue?
 				if (begin.indexOf("{ok}") > -1) {
 					// Get a reply then.
-					reply = this.reply(username, message, false, 0);
+					reply = this.reply(context, message, false, 0, calls);
 					begin = begin.replaceAll("\\{ok\\}", reply);
 					reply = begin;
 				} else {
@@ -1013,54 +1499,132 @@ public class RiveScript {
 				}
 
 				// Run final substitutions.
-				reply = processTags(username, clients.client(username), message, reply,
+				reply = processTags(context, message, reply,
 						new Vector<String>(), new Vector<String>(),
-						0);
+						0, calls);
 			} else {
 				// No BEGIN, just continue.
-				reply = this.reply(username, message, false, 0);
+				reply = this.reply(context, message, false, 0, calls);
+			}
+
+			// Wait for the object macros, if there are any left.
+			if (calls != null && !calls.isEmpty()) {
+				return complete(context, message, reply, calls);
 			}
 
 			// Save their chat history.
-			clients.client(username).addInput(message);
-			clients.client(username).addReply(reply);
+			context.getProfile().addInput(message);
+			context.getProfile().addReply(reply);
 
 			// Return their reply.
-			return reply;
-
+			context.finish(reply);
+			return CompletableFuture.completedFuture(context);
 		} finally {
-			// Clear the current user.
-			this.currentUser.remove();
+			lock.unlock();
 		}
 	}
 
+	/**
+	 * Fills the results of the object macros in a reply once they all complete, and saves the
+	 * user's chat history.
+	 *
+	 * @param context The context of the reply.
+	 * @param message The (formatted!) message sent by the user.
+	 * @param reply   The reply, with a placeholder for each object macro.
+	 * @param calls   The object macros, in the order of their placeholders.
+	 */
+	private CompletableFuture<ReplyContext> complete(final ReplyContext context, final String message,
+			final String reply, final Vector<CompletableFuture<String>> calls) {
+		CompletableFuture<?>[] all = calls.toArray(new CompletableFuture<?>[calls.size()]);
+		return CompletableFuture.allOf(all).thenApply(done -> {
+			String result = reply;
+			for (int i = 0; i < calls.size(); i++) {
+				result = result.replace(placeholder(i), calls.get(i).join());
+			}
+			ReentrantLock lock = context.getProfile().getLock();
+			lock.lock();
+			try {
+				context.getProfile().addInput(message);
+				context.getProfile().addReply(result);
+			} finally {
+				lock.unlock();
+			}
+			context.finish(result);
+			return context;
+		});
+	}
+
+	/**
+	 * Returns the text an object macro's result puts in the reply: nothing for {@code null}.
+	 *
+	 * @param result The result of the object macro.
+	 */
+	private static String callResult(String result) {
+		return result == null ? "" : result;
+	}
+
+	/**
+	 * Returns the future of the text an object macro puts in the reply, which completes with the
+	 * error text instead of failing.
+	 *
+	 * @param result The future result of the object macro.
+	 */
+	private static CompletableFuture<String> callResult(CompletableFuture<String> result) {
+		if (result == null) {
+			return CompletableFuture.completedFuture("");
+		}
+		return result.handle((text, error) -> error == null ? callResult(text) : callError(error));
+	}
+
+	/**
+	 * Returns the text an object macro that failed puts in the reply.
+	 *
+	 * @param error The exception thrown by the object macro.
+	 */
+	private static String callError(Throwable error) {
+		if (error instanceof CompletionException && error.getCause() != null) {
+			error = error.getCause();
+		}
+		return "[ERR: " + error.getClass().getSimpleName() + ": " + error.getMessage() + "]";
+	}
+
+	/**
+	 * Returns the text that stands for the result of an object macro until it completes.
+	 *
+	 * @param index The index of the object macro in the reply.
+	 */
+	private static String placeholder(int index) {
+		return "\u0000" + index + "\u0000";
+	}
+
 	/**
 	 * Internal method for getting a reply.
 	 *
-	 * @param user    The username of the calling user.
+	 * @param context The context of the reply.
 	 * @param message The (formatted!) message sent by the user.
 	 * @param begin   Whether the context is that we're in the BEGIN statement or not.
 	 * @param step    The recursion depth that we're at so far.
+	 * @param calls   Collects the object macros that complete later, or {@code null} to wait for them.
 	 */
-	private String reply(String user, String message, boolean begin, int step) {
+	private String reply(ReplyContext context, String message, boolean begin, int step,
+			Vector<CompletableFuture<String>> calls) {
 		/*-----------------------*/
 		/*-- Collect User Info --*/
 		/*-----------------------*/
 
+		String user = context.getUser();          // The user's id
 		String topic = "random";                  // Default topic = random
 		Vector<String> stars = new Vector<>();    // Wildcard matches
 		Vector<String> botstars = new Vector<>(); // Wildcards in %Previous
 		String reply = "";                        // The eventual reply
-		Client profile;                           // The user's profile object
-
-		// Get the user's profile.
-		profile = clients.client(user);
+		Client profile = context.getProfile();    // The user's profile object
+		Brain brain = context.getBrain();         // The compiled topics
 
 		// Update their topic.
 		topic = profile.get("topic");
 
 		// Avoid letting the user fall into a missing topic.
-		if (topics.exists(topic) == false) {
+		if (brain.exists(topic) == false) {
 			cry("User " + user + " was in a missing topic named \"" + topic + "\"!");
 			topic = "random";
 			profile.set("topic", "random");
@@ -1084,78 +1648,87 @@ public class RiveScript {
 		/*------------------*/
 
 		// Create a pointer for the matched data.
-		Trigger matched = null;
+		CompiledReplies matched = null;
 		boolean foundMatch = false;
 		String matchedTrigger = "";
 
+		// The topic may not exist at all, e.g. if every trigger is in a named topic.
+		final CompiledTopic current = brain.topic(topic);
+
 		// See if there are any %previous's in this topic, or any topic related to it. This
-		// should only be done the first time -- not during a recursive redirection.
-		if (step == 0) {
+		// should only be done the first time -- not during a recursive redirection. The topic
+		// tree and whether it has any %previous's were worked out when sorting the replies.
+		if (step == 0 && current != null && current.hasPreviousInTree()) {
 			say("Looking for a %Previous");
-			String[] allTopics = {topic};
-			if (this.topics.topic(topic).includes().length > 0 || this.topics.topic(topic).inherits().length > 0) {
-				// We need to walk the topic tree.
-				allTopics = this.topics.getTopicTree(topic, 0);
-			}
+			String[] allTopics = current.listTopicTree();
+			String lastReply = null;
 			for (int i = 0; i < allTopics.length; i++) {
 				// Does this topic have a %Previous anywhere?
 				say("Seeing if " + allTopics[i] + " has a %Previous");
-				if (this.topics.topic(allTopics[i]).hasPrevious()) {
+				CompiledTopic other = brain.topic(allTopics[i]);
+				PreviousIndex index = other == null ? null : other.getPreviousIndex();
+				if (index != null) {
 					say("Topic " + allTopics[i] + " has at least one %Previous");
 
-					// Get them.
-					String[] previous = this.topics.topic(allTopics[i]).listPrevious();
-					for (int j = 0; j < previous.length; j++) {
-						say("Candidate: " + previous[j]);
-
-						// Try to match the bot's last reply against this.
-						String lastReply = formatMessage(profile.getReply(1));
-						String regexp = triggerRegexp(user, profile, previous[j]);
-						say("Compare " + lastReply + " <=> " + previous[j] + " (" + regexp + ")");
-
-						// Does it match?
-						Pattern re = Pattern.compile("^" + regexp + "$");
-						Matcher m = re.matcher(lastReply);
-						while (m.find() == true) {
-							say("OMFG the lastReply matches!");
-
-							// Harvest the botstars.
-							for (int s = 1; s <= m.groupCount(); s++) {
-								say("Add botstar: " + m.group(s));
-								botstars.add(m.group(s));
+					// Match the bot's last reply against them, unless we already did since it was stored.
+					String[][] previous = profile.getPreviousMatches(index);
+					if (previous == null) {
+						if (lastReply == null) {
+							lastReply = formatMessage(brain, profile.getReply(1));
+						}
+						previous = new String[index.size()][];
+						for (int j = 0; j < index.size(); j++) {
+							Pattern re = compiledRegexp(index.getPrevious(j), profile);
+							say("Compare " + lastReply + " <=> " + index.getPrevious(j).getPattern() + " (" + re.pattern() + ")");
+							Matcher m = re.matcher(lastReply);
+							if (m.find() == true) {
+								previous[j] = new String[m.groupCount()];
+								for (int s = 1; s <= m.groupCount(); s++) {
+									previous[j][s - 1] = m.group(s);
+								}
 							}
+						}
+						if (index.isMemoizable()) {
+							profile.setPreviousMatches(index, previous);
+						}
+					}
 
-							// Now see if the user matched this trigger too!
-							String[] candidates = this.topics.topic(allTopics[i]).listPreviousTriggers(previous[j]);
-							for (int k = 0; k < candidates.length; k++) {
-								say("Does the user's message match " + candidates[k] + "?");
-								String humanside = triggerRegexp(user, profile, candidates[k]);
-								say("Compare " + message + " <=> " + candidates[k] + " (" + humanside + ")");
-
-								Pattern reH = Pattern.compile("^" + humanside + "$");
-								Matcher mH = reH.matcher(message);
-								while (mH.find() == true) {
-									say("It's a match!!!");
-
-									// Make sure it's all valid.
-									String realTrigger = candidates[k] + "{previous}" + previous[j];
-									if (this.topics.topic(allTopics[i]).triggerExists(realTrigger)) {
-										// Seems to be! Collect the stars.
-										for (int s = 1; s <= mH.groupCount(); s++) {
-											say("Add star: " + mH.group(s));
-											stars.add(mH.group(s));
-										}
-
-										foundMatch = true;
-										matchedTrigger = candidates[k];
-										matched = this.topics.topic(allTopics[i]).trigger(realTrigger);
-									}
+					for (int j = 0; j < previous.length; j++) {
+						if (previous[j] == null) {
+							continue;
+						}
+						say("OMFG the lastReply matches " + index.getPrevious(j).getPattern() + "!");
 
-									break;
-								}
+						// Harvest the botstars.
+						for (int s = 0; s < previous[j].length; s++) {
+							say("Add botstar: " + previous[j][s]);
+							botstars.add(previous[j][s]);
+						}
 
-								if (foundMatch) {
-									break;
+						// Now see if the user matched this trigger too!
+						CompiledTrigger[] candidates = index.getTriggers(j);
+						for (int k = 0; k < candidates.length; k++) {
+							say("Does the user's message match " + candidates[k].getPattern() + "?");
+							Pattern reH = compiledRegexp(candidates[k], profile);
+							say("Compare " + message + " <=> " + candidates[k].getPattern() + " (" + reH.pattern() + ")");
+
+							Matcher mH = reH.matcher(message);
+							if (mH.find() == true) {
+								say("It's a match!!!");
+
+								// Make sure it's all valid.
+								String realTrigger = candidates[k].getPattern() + "{previous}" + index.getPrevious(j).getPattern();
+								CompiledReplies replies = other.getPreviousReplies(realTrigger);
+								if (replies != null) {
+									// Seems to be! Collect the stars.
+									for (int s = 1; s <= mH.groupCount(); s++) {
+										say("Add star: " + mH.group(s));
+										stars.add(mH.group(s));
+									}
+
+									foundMatch = true;
+									matchedTrigger = candidates[k].getPattern();
+									matched = replies;
 								}
 							}
 							if (foundMatch) {
@@ -1168,20 +1741,23 @@ public class RiveScript {
 		}
 
 		// Search their topic for a match to their trigger.
-		if (foundMatch == false) {
-			// Go through the sort buffer for their topic.
-			String[] triggers = topics.topic(topic).listTriggers();
-			for (int a = 0; a < triggers.length; a++) {
-				String trigger = triggers[a];
-
-				// Prepare the trigger for the regular expression engine.
-				String regexp = triggerRegexp(user, profile, trigger);
-				say("Try to match \"" + message + "\" against \"" + trigger + "\" (" + regexp + ")");
-
-				// Is it a match?
-				Pattern re = Pattern.compile("^" + regexp + "$");
-				Matcher m = re.matcher(message);
-				if (m.find() == true) {
+		if (foundMatch == false && current != null) {
+			// Go through the sort buffer for their topic, letting its matcher skip the
+			// triggers that can't match their message.
+			final Client client = profile;
+			final CompiledTrigger[] triggers = current.listCompiledTriggers();
+			int a = triggers.length > 0 ? current.getMatcher().match(message, stars, new TriggerTest() {
+
+				@Override
+				public boolean test(int position, String message, Vector<String> stars) {
+					Pattern re = regexp(position);
+					say("Try to match \"" + message + "\" against \"" + triggers[position].getPattern() + "\" (" + re.pattern() + ")");
+
+					// Is it a match?
+					Matcher m = re.matcher(message);
+					if (m.find() == false) {
+						return false;
+					}
 					say("The trigger matches! Star count: " + m.groupCount());
 
 					// Harvest the stars.
@@ -1194,26 +1770,26 @@ public class RiveScript {
 						say("Add star: " + star);
 						stars.add(star);
 					}
+					return true;
+				}
 
-					// We found a match, but what if the trigger we matched belongs to
-					// an inherited topic? Check for that.
-					if (this.topics.topic(topic).triggerExists(trigger)) {
-						// No, the trigger does belong to us.
-						matched = this.topics.topic(topic).trigger(trigger);
-					} else {
-						say("Trigger doesn't exist under this topic, trying to find it!");
-						matched = this.topics.findTriggerByInheritance(topic, trigger, 0);
-					}
-
-					foundMatch = true;
-					matchedTrigger = trigger;
-					break;
+				@Override
+				public Pattern regexp(int position) {
+					return compiledRegexp(triggers[position], client);
 				}
+			}) : -1;
+
+			if (a > -1) {
+				// The trigger may belong to an inherited topic, the sort already found it for us.
+				matched = current.getReplies(a);
+				foundMatch = true;
+				matchedTrigger = triggers[a].getPattern();
 			}
 		}
 
 		// Store what trigger they matched on (matchedTrigger can be blank if they didn't match).
 		profile.set("__lastmatch__", matchedTrigger);
+		context.match(matchedTrigger, stars, step);
 
 		// Did they match anything?
 		if (foundMatch) {
@@ -1232,97 +1808,25 @@ public class RiveScript {
 					break;
 				}
 
-				// Get the trigger object.
-				Trigger trigger = matched;
+				// Get the trigger's replies.
+				CompiledReplies trigger = matched;
 				say("The trigger matched belongs to topic " + trigger.topic());
 
 				// Check for conditions.
-				String[] conditions = trigger.listConditions();
+				Condition[] conditions = trigger.listConditions();
 				if (conditions.length > 0) {
 					say("This trigger has some conditions!");
 
 					// See if any conditions are true.
-					boolean truth = false;
+					TagProcessor processor = tagProcessor(context, stars, botstars, step + 1, null);
 					for (int c = 0; c < conditions.length; c++) {
-						// Separate the condition from the potential reply.
-						String[] halves = conditions[c].split("\\s*=>\\s*");
-						String condition = halves[0].trim();
-						String potreply = halves[1].trim();
-
-						// Split up the condition.
-						Pattern reCond = Pattern.compile("^(.+?)\\s+(==|eq|\\!=|ne|<>|<|<=|>|>=)\\s+(.+?)$");
-						Matcher mCond = reCond.matcher(condition);
-						while (mCond.find()) {
-							String left = mCond.group(1).trim();
-							String eq = mCond.group(2).trim();
-							String right = mCond.group(3).trim();
-
-							// Process tags on both halves.
-							left = processTags(user, profile, message, left, stars, botstars, step + 1);
-							right = processTags(user, profile, message, right, stars, botstars, step + 1);
-							say("Compare: " + left + " " + eq + " " + right);
-
-							// Defaults
-							if (left.length() == 0) {
-								left = "undefined";
-							}
-							if (right.length() == 0) {
-								right = "undefined";
-							}
-
-							// Validate the expression.
-							if (eq.equals("eq") || eq.equals("ne") || eq.equals("==") || eq.equals("!=") || eq.equals("<>")) {
-								// String equality comparing.
-								if ((eq.equals("eq") || eq.equals("==")) && left.equals(right)) {
-									truth = true;
-									break;
-								} else if ((eq.equals("ne") || eq.equals("!=") || eq.equals("<>")) && !left.equals(right)) {
-									truth = true;
-									break;
-								}
-							}
-
-							// Numeric comparing.
-							int lt = 0;
-							int rt = 0;
-
-							// Turn the two sides into numbers.
-							try {
-								lt = Integer.parseInt(left);
-								rt = Integer.parseInt(right);
-							} catch (NumberFormatException e) {
-								// Oh well!
-								break;
-							}
-
-							// Run the remaining equality checks.
-							if (eq.equals("==") || eq.equals("!=") || eq.equals("<>")) {
-								// Equality checks.
-								if (eq.equals("==") && lt == rt) {
-									truth = true;
-									break;
-								} else if ((eq.equals("!=") || eq.equals("<>")) && lt != rt) {
-									truth = true;
-									break;
-								}
-							} else if (eq.equals("<") && lt < rt) {
-								truth = true;
-								break;
-							} else if (eq.equals("<=") && lt <= rt) {
-								truth = true;
-								break;
-							} else if (eq.equals(">") && lt > rt) {
-								truth = true;
-								break;
-							} else if (eq.equals(">=") && lt >= rt) {
-								truth = true;
-								break;
-							}
-						}
+						Condition condition = conditions[c];
 
 						// True condition?
+						boolean truth = condition.test(processor);
+						say("Condition: " + condition.getSource() + " (" + truth + ")");
 						if (truth) {
-							reply = potreply;
+							reply = condition.getReply();
 							break;
 						}
 					}
@@ -1338,74 +1842,21 @@ public class RiveScript {
 				String[] replies = trigger.listReplies();
 
 				// Take into account their weights.
-				Vector<Integer> bucket = new Vector<>();
-				Pattern reWeight = Pattern.compile("\\{weight=(\\d+?)\\}");
-
-				// Look at weights on redirects.
-				for (int i = 0; i < redirects.length; i++) {
-					if (redirects[i].indexOf("{weight=") > -1) {
-						Matcher mWeight = reWeight.matcher(redirects[i]);
-						while (mWeight.find()) {
-							int weight = Integer.parseInt(mWeight.group(1));
-
-							// Add to the bucket this many times.
-							if (weight > 1) {
-								for (int j = 0; j < weight; j++) {
-									say("Trigger has a redirect (weight " + weight + "): " + redirects[i]);
-									bucket.add(i);
-								}
-							} else {
-								say("Trigger has a redirect (weight " + weight + "): " + redirects[i]);
-								bucket.add(i);
-							}
-
-							// Only one weight is supported.
-							break;
-						}
-					} else {
-						say("Trigger has a redirect: " + redirects[i]);
-						bucket.add(i);
-					}
-				}
-
-				// Look at weights on replies.
-				for (int i = 0; i < replies.length; i++) {
-					if (replies[i].indexOf("{weight=") > -1) {
-						Matcher mWeight = reWeight.matcher(replies[i]);
-						while (mWeight.find()) {
-							int weight = Integer.parseInt(mWeight.group(1));
-
-							// Add to the bucket this many times.
-							if (weight > 1) {
-								for (int j = 0; j < weight; j++) {
-									say("Trigger has a reply (weight " + weight + "): " + replies[i]);
-									bucket.add(redirects.length + i);
-								}
-							} else {
-								say("Trigger has a reply (weight " + weight + "): " + replies[i]);
-								bucket.add(redirects.length + i);
-							}
-
-							// Only one weight is supported.
-							break;
-						}
-					} else {
-						say("Trigger has a reply: " + replies[i]);
-						bucket.add(redirects.length + i);
-					}
-				}
+				WeightedChoice weights = trigger.getWeights();
 
 				// Pull a random value out.
-				int[] choices = Util.Iv2s(bucket);
-				if (choices.length > 0) {
-					int choice = choices[rand.nextInt(choices.length)];
-					say("Possible choices: " + choices.length + "; chosen: " + choice);
+				int choice = weights.pick(context.getRandom());
+				if (choice > -1) {
+					say("Possible choices: " + weights.getTotal() + "; chosen: " + choice);
 					if (choice < redirects.length) {
 						// The choice was a redirect!
-						String redirect = redirects[choice].replaceAll("\\{weight=\\d+\\}", "");
-						redirect = processTags(user, profile, message, redirect, stars, botstars, step);
+						String redirect = redirects[choice];
+						if (redirect.indexOf("{weight=") > -1) {
+							redirect = redirect.replaceAll("\\{weight=\\d+\\}", "");
+						}
+						redirect = processTags(context, message, redirect, stars, botstars, step, null);
 						say("Chosen a redirect to " + redirect + "!");
-						reply = reply(user, redirect, begin, step + 1);
+						reply = reply(context, redirect, begin, step + 1, calls);
 					} else {
 						// The choice was a reply!
 						choice -= redirects.length;
@@ -1459,19 +1910,48 @@ public class RiveScript {
 			}
 		} else {
 			// Process tags.
-			reply = processTags(user, profile, message, reply, stars, botstars, step);
+			reply = processTags(context, message, reply, stars, botstars, step, calls);
 		}
 
 		return reply;
 	}
 
 	/**
-	 * Formats a trigger for the regular expression engine.
+	 * Compiles a reply, unless it already was.
+	 *
+	 * @param templates The compiled replies.
+	 * @param reply     The reply.
+	 */
+	private void compileTemplate(HashMap<String, ReplyTemplate> templates, String reply) {
+		if (!templates.containsKey(reply)) {
+			templates.put(reply, new ReplyTemplate(reply, arrays_c));
+		}
+	}
+
+	/**
+	 * Returns the regexp of a compiled trigger, filling in the holes of a dynamic trigger
+	 * for the user.
+	 *
+	 * @param trigger The compiled trigger.
+	 * @param profile The client object for the user.
+	 */
+	private Pattern compiledRegexp(CompiledTrigger trigger, Client profile) {
+		Pattern re = trigger.getRegexp();
+		if (re == null) {
+			TriggerTemplate template = trigger.getTemplate();
+			re = template.compile(holeValues(template, profile));
+		}
+		return re;
+	}
+
+	/**
+	 * Formats a trigger for the regular expression engine. Tags that depend on user or bot
+	 * data ({@code <bot>}, {@code <get>}, {@code <input>} and {@code <reply>}) are left in
+	 * place to be turned into {@link TriggerTemplate} holes.
 	 *
-	 * @param user    The user id of the caller.
 	 * @param trigger The raw trigger text.
 	 */
-	private String triggerRegexp(String user, Client profile, String trigger) {
+	private String triggerRegexp(String trigger) {
 		// If the trigger is simply '*', it needs to become (.*?) so it catches the empty string.
 		String regexp = trigger.replaceAll("^\\*$", "<zerowidthstar>");
 
@@ -1480,7 +1960,9 @@ public class RiveScript {
 		regexp = regexp.replaceAll("#", "(\\\\d+?)");                // #  ->  (\d+?)
 		regexp = regexp.replaceAll("(?<!\\\\)_", "(\\\\w+?)");       // _  ->  ([A-Za-z ]+?)
 		regexp = regexp.replaceAll("\\\\_", "_");                    // \_ ->  _
-		regexp = regexp.replaceAll("\\s*\\{weight=\\d+\\}\\s*", ""); // Remove {weight} tags
+		if (regexp.indexOf("{weight=") > -1) {
+			regexp = regexp.replaceAll("\\s*\\{weight=\\d+\\}\\s*", ""); // Remove {weight} tags
+		}
 		regexp = regexp.replaceAll("<zerowidthstar>", "(.*?)");      // *  ->  (.*?)
 
 		// Handle optionals.
@@ -1530,21 +2012,8 @@ public class RiveScript {
 				String name = mArray.group(1);
 
 				// Do we have an array by this name?
-				if (arrays.containsKey(name)) {
-					String[] values = Util.Sv2s(arrays.get(name));
-					StringBuffer joined = new StringBuffer();
-
-					// Join the array.
-					for (int i = 0; i < values.length; i++) {
-						joined.append(values[i]);
-						if (i < values.length - 1) {
-							joined.append("|");
-						}
-					}
-
-					// Final contents...
-					String rep = "(?:" + joined.toString() + ")";
-					regexp = regexp.replace(array, rep);
+				if (arrays_c.containsKey(name)) {
+					regexp = regexp.replace(array, arrays_c.get(name).getAlternation());
 				} else {
 					// No array by this name.
 					regexp = regexp.replace(array, "");
@@ -1552,78 +2021,70 @@ public class RiveScript {
 			}
 		}
 
-		// Filter in bot variables.
-		if (regexp.indexOf("<bot") > -1) {
-			Pattern reBot = Pattern.compile("<bot (.+?)>");
-			Matcher mBot = reBot.matcher(regexp);
-			while (mBot.find()) {
-				String tag = mBot.group(0);
-				String var = mBot.group(1);
-				String value = vars.get(var).toLowerCase().replace("[^a-z0-9 ]+", "");
-
-				// Have this?
-				if (vars.containsKey(var)) {
-					regexp = regexp.replace(tag, value);
-				} else {
-					regexp = regexp.replace(tag, "undefined");
-				}
-			}
-		}
-
-		// Filter in user variables.
-		if (regexp.indexOf("<get") > -1) {
-			Pattern reGet = Pattern.compile("<get (.+?)>");
-			Matcher mGet = reGet.matcher(regexp);
-			while (mGet.find()) {
-				String tag = mGet.group(0);
-				String var = mGet.group(1);
-				String value = profile.get(var).toLowerCase().replaceAll("[^a-z0-9 ]+", "");
-
-				// Have this?
-				regexp = regexp.replace(tag, value);
-			}
-		}
+		return regexp;
+	}
 
-		// Input and reply tags.
-		regexp = regexp.replaceAll("<input>", "<input1>");
-		regexp = regexp.replaceAll("<reply>", "<reply1>");
-		if (regexp.indexOf("<input") > -1) {
-			Pattern reInput = Pattern.compile("<input([0-9])>");
-			Matcher mInput = reInput.matcher(regexp);
-			while (mInput.find()) {
-				String tag = mInput.group(0);
-				int index = Integer.parseInt(mInput.group(1));
-				String text = profile.getInput(index).toLowerCase().replaceAll("[^a-z0-9 ]+", "");
-				regexp = regexp.replace(tag, text);
-			}
-		}
-		if (regexp.indexOf("<reply") > -1) {
-			Pattern reReply = Pattern.compile("<reply([0-9])>");
-			Matcher mReply = reReply.matcher(regexp);
-			while (mReply.find()) {
-				String tag = mReply.group(0);
-				int index = Integer.parseInt(mReply.group(1));
-				String text = profile.getReply(index).toLowerCase().replaceAll("[^a-z0-9 ]+", "");
-				regexp = regexp.replace(tag, text);
+	/**
+	 * Looks up the values for the holes in a trigger template. The values are lowercased and
+	 * stripped of anything but letters, numbers and spaces.
+	 *
+	 * @param template The trigger template.
+	 * @param profile  The user's profile.
+	 */
+	private String[] holeValues(TriggerTemplate template, Client profile) {
+		String[] values = new String[template.size()];
+		for (int i = 0; i < values.length; i++) {
+			String value;
+			switch (template.getType(i)) {
+				case BOT:
+					value = vars.containsKey(template.getName(i)) ? vars.get(template.getName(i)) : "undefined";
+					break;
+				case GET:
+					value = profile.get(template.getName(i));
+					break;
+				case INPUT:
+					value = profile.getInput(template.getIndex(i));
+					break;
+				default:
+					value = profile.getReply(template.getIndex(i));
+					break;
 			}
+			values[i] = reNonWord.matcher(value.toLowerCase()).replaceAll("");
 		}
-
-		return regexp;
+		return values;
 	}
 
 	/**
 	 * Process reply tags.
 	 *
-	 * @param user      The name of the end user.
-	 * @param profile   The RiveScript client object holding the user's profile
+	 * @param context   The context of the reply.
 	 * @param message   The message sent by the user.
 	 * @param reply     The bot's original reply including tags.
 	 * @param vst       The vector of wildcards the user's message matched.
 	 * @param vbst      The vector of wildcards in any @{code %Previous}.
 	 * @param step      The current recursion depth limit.
+	 * @param calls     Collects the object macros that complete later, or {@code null} to wait for them.
 	 */
-	private String processTags(String user, Client profile, String message, String reply,
-			Vector<String> vst, Vector<String> vbst, int step) {
+	private String processTags(ReplyContext context, String message, String reply,
+			Vector<String> vst, Vector<String> vbst, int step, Vector<CompletableFuture<String>> calls) {
+		ReplyTemplate template = context.getBrain().template(reply);
+		return template.render(tagProcessor(context, vst, vbst, step, calls));
+	}
+
+	/**
+	 * Returns the {@link TagProcessor} that renders replies for a user.
+	 *
+	 * @param context The context of the reply.
+	 * @param vst     The vector of wildcards the user's message matched.
+	 * @param vbst    The vector of wildcards in any @{code %Previous}.
+	 * @param step    The current recursion depth limit.
+	 * @param calls   Collects the object macros that complete later, or {@code null} to wait for them.
+	 */
+	private TagProcessor tagProcessor(final ReplyContext context, Vector<String> vst, Vector<String> vbst,
+			final int step, final Vector<CompletableFuture<String>> calls) {
+		final String user = context.getUser();
+		final Client profile = context.getProfile();
+
 		// Pad the stars.
 		Vector<String> vstars = new Vector<>();
 		vstars.add("");
@@ -1641,282 +2102,65 @@ public class RiveScript {
 		}
 
 		// Convert the stars into simple arrays.
-		String[] stars = Util.Sv2s(vstars);
-		String[] botstars = Util.Sv2s(vbotstars);
-
-		// Turn arrays into randomized sets.
-		if (reply.indexOf("(@") > -1) {
-			Pattern reArray = Pattern.compile("\\(@([A-Za-z0-9_]+)\\)");
-			Matcher mArray = reArray.matcher(reply);
-			while (mArray.find()) {
-				String tag = mArray.group(0);
-				String name = mArray.group(1);
-				String result;
-				if (arrays.containsKey(name)) {
-					String[] values = Util.Sv2s(arrays.get(name));
-					StringBuffer joined = new StringBuffer();
-					// Join the array.
-					for (int i = 0; i < values.length; i++) {
-						joined.append(values[i]);
-						if (i < values.length - 1) {
-							joined.append("|");
-						}
-					}
-					result = "{random}" + joined.toString() + "{/random}";
-					reply = reply.replace(tag, result);
-				}
-			}
-		}
+		final String[] stars = Util.Sv2s(vstars);
+		final String[] botstars = Util.Sv2s(vbotstars);
 
-		// Shortcut tags.
-		reply = reply.replaceAll("<person>", "{person}<star>{/person}");
-		reply = reply.replaceAll("<@>", "{@<star>}");
-		reply = reply.replaceAll("<formal>", "{formal}<star>{/formal}");
-		reply = reply.replaceAll("<sentence>", "{sentence}<star>{/sentence}");
-		reply = reply.replaceAll("<uppercase>", "{uppercase}<star>{/uppercase}");
-		reply = reply.replaceAll("<lowercase>", "{lowercase}<star>{/lowercase}");
-
-		// Weight and star tags.
-		reply = reply.replaceAll("\\{weight=\\d+\\}", ""); // Remove {weight}s
-		reply = reply.replaceAll("<star>", stars[1]);
-		reply = reply.replaceAll("<botstar>", botstars[1]);
-		for (int i = 1; i < stars.length; i++) {
-			reply = reply.replaceAll("<star" + i + ">", stars[i]);
-		}
-		for (int i = 1; i < botstars.length; i++) {
-			reply = reply.replaceAll("<botstar" + i + ">", botstars[i]);
-		}
-		reply = reply.replaceAll("<(star|botstar)\\d+>", "");
-
-		// Input and reply tags.
-		reply = reply.replaceAll("<input>", "<input1>");
-		reply = reply.replaceAll("<reply>", "<reply1>");
-		if (reply.indexOf("<input") > -1) {
-			Pattern reInput = Pattern.compile("<input([0-9])>");
-			Matcher mInput = reInput.matcher(reply);
-			while (mInput.find()) {
-				String tag = mInput.group(0);
-				int index = Integer.parseInt(mInput.group(1));
-				String text = profile.getInput(index).toLowerCase().replaceAll("[^a-z0-9 ]+", "");
-				reply = reply.replace(tag, text);
+		return new TagProcessor() {
+			public String star(int index) {
+				return index < stars.length ? stars[index] : "";
 			}
-		}
-		if (reply.indexOf("<reply") > -1) {
-			Pattern reReply = Pattern.compile("<reply([0-9])>");
-			Matcher mReply = reReply.matcher(reply);
-			while (mReply.find()) {
-				String tag = mReply.group(0);
-				int index = Integer.parseInt(mReply.group(1));
-				String text = profile.getReply(index).toLowerCase().replaceAll("[^a-z0-9 ]+", "");
-				reply = reply.replace(tag, text);
-			}
-		}
 
-		// <id> and escape codes
-		reply = reply.replaceAll("<id>", user);
-		reply = reply.replaceAll("\\\\s", " ");
-		reply = reply.replaceAll("\\\\n", "\n");
-		reply = reply.replaceAll("\\\\", "\\");
-		reply = reply.replaceAll("\\#", "#");
-
-		// {random} tag
-		if (reply.indexOf("{random}") > -1) {
-			Pattern reRandom = Pattern.compile("\\{random\\}(.+?)\\{\\/random\\}");
-			Matcher mRandom = reRandom.matcher(reply);
-			while (mRandom.find()) {
-				String tag = mRandom.group(0);
-				String[] candidates = mRandom.group(1).split("\\|");
-				String chosen = candidates[rand.nextInt(candidates.length)];
-				reply = reply.replace(tag, chosen);
+			public String botstar(int index) {
+				return index < botstars.length ? botstars[index] : "";
 			}
-		}
-
-		// {!stream} tag
-		if (reply.indexOf("{!") > -1) {
-			Pattern reStream = Pattern.compile("\\{\\!(.+?)\\}");
-			Matcher mStream = reStream.matcher(reply);
-			while (mStream.find()) {
-				String tag = mStream.group(0);
-				String code = mStream.group(1);
-				say("Stream new code in: " + code);
 
-				// Stream it.
-				this.stream(code);
-				reply = reply.replace(tag, "");
+			public String input(int index) {
+				return reNonWord.matcher(profile.getInput(index).toLowerCase()).replaceAll("");
 			}
-		}
 
-		// Person substitutions & string formatting
-		if (reply.indexOf("{person}") > -1 || reply.indexOf("{formal}") > -1 || reply.indexOf("{sentence}") > -1 ||
-				reply.indexOf("{uppercase}") > -1 || reply.indexOf("{lowercase}") > -1) {
-			String[] tags = {"person", "formal", "sentence", "uppercase", "lowercase"};
-			for (int i = 0; i < tags.length; i++) {
-				Pattern reTag = Pattern.compile("\\{" + tags[i] + "\\}(.+?)\\{\\/" + tags[i] + "\\}");
-				Matcher mTag = reTag.matcher(reply);
-				while (mTag.find()) {
-					String tag = mTag.group(0);
-					String text = mTag.group(1);
-					if (tags[i].equals("person")) {
-						// Run person substitutions.
-						say("Run person substitutions: before: " + text);
-						text = Util.substitute(person_s, person, text);
-						say("After: " + text);
-						reply = reply.replace(tag, text);
-					} else {
-						// String transform.
-						text = stringTransform(tags[i], text);
-						reply = reply.replace(tag, text);
-					}
-				}
+			public String reply(int index) {
+				return reNonWord.matcher(profile.getReply(index).toLowerCase()).replaceAll("");
 			}
-		}
 
-		// Handle all variable-related tags with an iterative regexp approach, to
-		// allow for nesting of tags in arbitrary ways (think <set a=<get b>>)
-		// Dummy out the <call> tags first, because we don't handle them right here.
-		reply = reply.replaceAll("<call>", "{__call__}");
-		reply = reply.replaceAll("</call>", "{/__call__}");
-
-		while (true) {
-			// This regexp will match a <tag> which contains no other tag inside it,
-			// i.e. in the case of <set a=<get b>> it will match <get b> but not the
-			// <set> tag, on the first pass. The second pass will get the <set> tag,
-			// and so on.
-			Pattern reTag = Pattern.compile("<([^<]+?)>");
-			Matcher mTag = reTag.matcher(reply);
-			if (!mTag.find()) {
-				break; // No remaining tags!
+			public String id() {
+				return user;
 			}
 
-			String match = mTag.group(1);
-			String[] parts = match.split(" ");
-			String tag = parts[0].toLowerCase();
-			String data = "";
-			if (parts.length > 1) {
-				data = Util.join(Arrays.copyOfRange(parts, 1, parts.length), " ");
+			public int random(int bound) {
+				return context.getRandom().nextInt(bound);
 			}
-			String insert = "";
-
-			// Handle the tags.
-			if (tag.equals("bot") || tag.equals("env")) {
-				// <bot> and <env> tags are similar
-				HashMap<String, String> target = tag.equals("bot") ? vars : globals;
-				if (data.indexOf("=") > -1) {
-					// Assigning a variable
-					parts = data.split("=", 2);
-					String name = parts[0];
-					String value = parts[1];
-					say("Set " + tag + " variable " + name + " = " + value);
-					target.put(name, value);
-				} else {
-					// Getting a bot/env variable
-					if (target.containsKey(data)) {
-						insert = target.get(data);
-					} else {
-						insert = "undefined";
-					}
-				}
-			} else if (tag.equals("set")) {
-				// <set> user vars
-				parts = data.split("=", 2);
-				String name = parts[0];
-				String value = parts[1];
-				say("Set user var " + name + "=" + value);
-				// Set the uservar.
-				profile.set(name, value);
-			} else if (tag.equals("add") || tag.equals("sub") || tag.equals("mult") || tag.equals("div")) {
-				// Math operator tags
-				parts = data.split("=");
-				String name = parts[0];
-				int result = 0;
-
-				// Initialize the variable?
-				if (profile.get(name).equals("undefined")) {
-					profile.set(name, "0");
-				}
 
-				try {
-					int value = Integer.parseInt(parts[1]);
-					try {
-						result = Integer.parseInt(profile.get(name));
-
-						// Run the operation.
-						if (tag.equals("add")) {
-							result += value;
-						} else if (tag.equals("sub")) {
-							result -= value;
-						} else if (tag.equals("mult")) {
-							result *= value;
-						} else {
-							// Don't divide by zero.
-							if (value == 0) {
-								insert = "[ERR: Can't divide by zero!]";
-							}
-							result /= value;
-						}
-					} catch (NumberFormatException e) {
-						insert = "[ERR: Math can't \"" + tag + "\" non-numeric variable " + name + "]";
-					}
-				} catch (NumberFormatException e) {
-					insert = "[ERR: Math can't \"" + tag + "\" non-numeric value " + parts[1] + "]";
-				}
+			public void stream(String code) {
+				say("Stream new code in: " + code);
+				RiveScript.this.stream(code);
+			}
 
-				// No errors?
-				if (insert.equals("")) {
-					profile.set(name, Integer.toString(result));
+			public String transform(String format, String text) {
+				if (format.equals("person")) {
+					// Run person substitutions.
+					say("Run person substitutions: before: " + text);
+					text = context.getBrain().getPerson().substitute(text);
+					say("After: " + text);
+					return text;
 				}
-			} else if (tag.equals("get")) {
-				// Get the user var.
-				insert = profile.get(data);
-			} else {
-				// Unrecognized tag, preserve it
-				insert = "\\x00" + match + "\\x01";
+				return stringTransform(format, text);
 			}
 
-			reply = reply.replace(mTag.group(0), insert);
-		}
+			public String tag(String tag) {
+				return processTag(profile, tag);
+			}
 
-		// Recover mangled HTML-like tags
-		reply = reply.replaceAll("\\\\x00", "<");
-		reply = reply.replaceAll("\\\\x01", ">");
-
-		// {topic} tag
-		if (reply.indexOf("{topic=") > -1) {
-			Pattern reTopic = Pattern.compile("\\{topic=(.+?)\\}");
-			Matcher mTopic = reTopic.matcher(reply);
-			while (mTopic.find()) {
-				String tag = mTopic.group(0);
-				String topic = mTopic.group(1);
+			public void topic(String topic) {
 				say("Set user's topic to: " + topic);
 				profile.set("topic", topic);
-				reply = reply.replace(tag, "");
 			}
-		}
 
-		// {@redirect} tag
-		if (reply.indexOf("{@") > -1) {
-			Pattern reRed = Pattern.compile("\\{@([^\\}]*?)\\}");
-			Matcher mRed = reRed.matcher(reply);
-			while (mRed.find()) {
-				String tag = mRed.group(0);
-				String target = mRed.group(1).trim();
-
-				// Do the reply redirect.
-				String subreply = this.reply(user, target, false, step + 1);
-				reply = reply.replace(tag, subreply);
+			public String redirect(String target, boolean output) {
+				return RiveScript.this.reply(context, target, false, step + 1, output ? calls : null);
 			}
-		}
 
-		// <call> tag
-		reply = reply.replaceAll("\\{__call__}", "<call>");
-		reply = reply.replaceAll("\\{/__call__}", "</call>");
-		if (reply.indexOf("<call>") > -1) {
-			Pattern reCall = Pattern.compile("<call>(.+?)<\\/call>");
-			Matcher mCall = reCall.matcher(reply);
-			while (mCall.find()) {
-				String tag = mCall.group(0);
-				String data = mCall.group(1);
-				String[] parts = data.split(" ");
+			public String call(String call, boolean output) {
+				String[] parts = call.split(" ");
 				String name = parts[0];
 				Vector<String> args = new Vector<String>();
 				for (int i = 1; i < parts.length; i++) {
@@ -1927,15 +2171,130 @@ public class RiveScript {
 				if (objects.containsKey(name)) {
 					// What language handles it?
 					String lang = objects.get(name);
-					String result = handlers.get(lang).onCall(name, user, Util.Sv2s(args));
-					reply = reply.replace(tag, result);
+
+					// Store the current ID in case the object wants it.
+					String previousUser = currentUser.get();
+					currentUser.set(user);
+					try {
+						if (output && calls != null) {
+							CompletableFuture<String> result = callResult(
+									handlers.get(lang).onCallAsync(name, context, Util.Sv2s(args)));
+							if (result.isDone()) {
+								return result.join();
+							}
+							calls.add(result);
+							return placeholder(calls.size() - 1);
+						}
+						return callResult(handlers.get(lang).onCall(name, context, Util.Sv2s(args)));
+					} catch (RuntimeException e) {
+						return callError(e);
+					} finally {
+						// Restore the user of an outer reply, e.g. one asked by another object.
+						if (previousUser == null) {
+							currentUser.remove();
+						} else {
+							currentUser.set(previousUser);
+						}
+					}
+				}
+				return "[ERR: Object Not Found]";
+			}
+		};
+	}
+
+	/**
+	 * Processes a variable-related tag, like {@code <get name>} or {@code <set name=value>}.
+	 * Returns the text that replaces it.
+	 *
+	 * @param profile The RiveScript client object holding the user's profile.
+	 * @param match   The text between the tag's brackets, with any tags nested in it already processed.
+	 */
+	private String processTag(Client profile, String match) {
+		String[] parts = match.split(" ");
+		String tag = parts[0].toLowerCase();
+		String data = "";
+		if (parts.length > 1) {
+			data = Util.join(Arrays.copyOfRange(parts, 1, parts.length), " ");
+		}
+		String insert = "";
+
+		// Handle the tags.
+		if (tag.equals("bot") || tag.equals("env")) {
+			// <bot> and <env> tags are similar
+			ConcurrentHashMap<String, String> target = tag.equals("bot") ? vars : globals;
+			if (data.indexOf("=") > -1) {
+				// Assigning a variable
+				parts = data.split("=", 2);
+				String name = parts[0];
+				String value = parts[1];
+				say("Set " + tag + " variable " + name + " = " + value);
+				target.put(name, value);
+			} else {
+				// Getting a bot/env variable
+				if (target.containsKey(data)) {
+					insert = target.get(data);
 				} else {
-					reply = reply.replace(tag, "[ERR: Object Not Found]");
+					insert = "undefined";
+				}
+			}
+		} else if (tag.equals("set")) {
+			// <set> user vars
+			parts = data.split("=", 2);
+			String name = parts[0];
+			String value = parts[1];
+			say("Set user var " + name + "=" + value);
+			// Set the uservar.
+			profile.set(name, value);
+		} else if (tag.equals("add") || tag.equals("sub") || tag.equals("mult") || tag.equals("div")) {
+			// Math operator tags
+			parts = data.split("=");
+			String name = parts[0];
+			int result = 0;
+
+			// Initialize the variable?
+			if (profile.get(name).equals("undefined")) {
+				profile.set(name, "0");
+			}
+
+			try {
+				int value = Integer.parseInt(parts[1]);
+				try {
+					result = Integer.parseInt(profile.get(name));
+
+					// Run the operation.
+					if (tag.equals("add")) {
+						result += value;
+					} else if (tag.equals("sub")) {
+						result -= value;
+					} else if (tag.equals("mult")) {
+						result *= value;
+					} else {
+						// Don't divide by zero.
+						if (value == 0) {
+							insert = "[ERR: Can't divide by zero!]";
+						}
+						result /= value;
+					}
+				} catch (NumberFormatException e) {
+					insert = "[ERR: Math can't \"" + tag + "\" non-numeric variable " + name + "]";
 				}
+			} catch (NumberFormatException e) {
+				insert = "[ERR: Math can't \"" + tag + "\" non-numeric value " + parts[1] + "]";
 			}
+
+			// No errors?
+			if (insert.equals("")) {
+				profile.set(name, Integer.toString(result));
+			}
+		} else if (tag.equals("get")) {
+			// Get the user var.
+			insert = profile.get(data);
+		} else {
+			// Unrecognized tag, preserve it
+			insert = "<" + match + ">";
 		}
 
-		return reply;
+		return insert;
 	}
 
 	/**
@@ -1980,18 +2339,11 @@ public class RiveScript {
 	 * Formats the user's message to begin reply matching. Lowercases it, runs substitutions,
 	 * and neutralizes what's left.
 	 *
+	 * @param brain   The brain with the substitutions.
 	 * @param message The input message to format.
 	 */
-	private String formatMessage(String message) {
-		// Lowercase it first.
-		message = message.toLowerCase();
-
-		// Run substitutions.
-		message = Util.substitute(subs_s, subs, message);
-
-		// Sanitize what's left.
-		message = message.replaceAll("[^a-z0-9_ ]", "");
-		return message;
+	private String formatMessage(Brain brain, String message) {
+		return brain.getNormalizer().normalize(message);
 	}
 
 	/*-----------------------*/
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link RandomSource} that makes the random choices of a bot repeatable, for load tests
+ * and regression runs.
+ * <p>
+ * By default each user gets a generator of their own, seeded from the seed and their user id,
+ * so a user who sends the same messages in the same order gets the same replies, however the
+ * replies to other users are interleaved. The generator is kept on the user's {@link Client}, so
+ * it goes away with the user. In per-request mode, each reply gets a new generator
+ * seeded from the seed, the user id and the message, so the same message from the same user
+ * always gets the same choices.
+ */
+public class SeededRandomSource implements RandomSource {
+
+	private final long seed;
+	private final boolean perRequest;
+	private final AtomicInteger generation = new AtomicInteger(); // Bumped by reset(), so the users reseed their generators
+
+	/**
+	 * Creates a source with a generator per user.
+	 *
+	 * @param seed The seed.
+	 */
+	public SeededRandomSource(long seed) {
+		this(seed, false);
+	}
+
+	/**
+	 * Creates a source.
+	 *
+	 * @param seed       The seed.
+	 * @param perRequest Whether to seed a new generator for every reply, instead of one per user.
+	 */
+	public SeededRandomSource(long seed, boolean perRequest) {
+		this.seed = seed;
+		this.perRequest = perRequest;
+	}
+
+	@Override
+	public Random random(Client client, String message) {
+		String user = client.getId();
+		if (perRequest) {
+			return new Random(mix(mix(seed, user), message == null ? "" : message));
+		}
+		return client.random(this, generation.get(), mix(seed, user));
+	}
+
+	/**
+	 * Forgets the generators of the users, so they start over from their seeds.
+	 */
+	public void reset() {
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * Mixes a text into a seed.
+	 */
+	private static long mix(long seed, String text) {
+		long hash = seed;
+		for (int i = 0; i < text.length(); i++) {
+			hash = hash * 31 + text.charAt(i);
+		}
+		hash ^= text.length();
+
+		// Spread the bits, so similar texts get unrelated seeds.
+		hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+		hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return hash ^ (hash >>> 33);
+	}
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Vector;
+
+/**
+ * Runs a set of substitutions ({@code ! sub} or {@code ! person}) on a text.
+ * <p>
+ * The patterns are compiled into an Aho-Corasick automaton that finds all their occurrences
+ * in one scan of the text, without any regexp. The occurrences are then replaced the way
+ * {@link Util#substitute} always has: the patterns are applied longest first, each only where
+ * it is surrounded by non-word characters (or the ends of the text), and text that was already
+ * substituted is never substituted again. Because an earlier substitution changes the word
+ * boundaries the later patterns see, each pattern that occurs in the text takes a pass over
+ * the text as substituted so far. Texts where no pattern occurs take just the one scan.
+ * <p>
+ * A substituter is immutable once built, so it can be shared by threads.
+ */
+public class Substituter {
+
+	private String[] patterns;     // The patterns, in the order they're applied
+	private String[] replacements; // The replacement for each pattern
+
+	// The automaton. Transitions on ASCII characters are precomputed for every state, the
+	// others follow the failure links.
+	private int[][] ascii;                                    // State x ASCII character -> state
+	private Vector<HashMap<Character, Integer>> children;     // The trie (for non-ASCII characters)
+	private int[] failure;                                    // Failure link of each state
+	private int[] output;                                     // Pattern ending at each state, or -1
+	private int[] dictionary;                                 // Next state with an output on the failure chain, or -1
+
+	/**
+	 * Compiles the substitutions.
+	 *
+	 * @param sorted The patterns, sorted in the order to apply them (longest first).
+	 * @param hash   The replacement text for each pattern.
+	 */
+	public Substituter(String[] sorted, HashMap<String, String> hash) {
+		this.patterns = sorted.clone();
+		this.replacements = new String[sorted.length];
+		for (int i = 0; i < sorted.length; i++) {
+			replacements[i] = hash.get(sorted[i]);
+		}
+
+		// Build the trie.
+		children = new Vector<>();
+		Vector<Integer> outputs = new Vector<>();
+		children.add(new HashMap<Character, Integer>());
+		outputs.add(-1);
+		for (int i = 0; i < patterns.length; i++) {
+			if (patterns[i].length() == 0) {
+				continue;
+			}
+			int state = 0;
+			for (int c = 0; c < patterns[i].length(); c++) {
+				Character ch = patterns[i].charAt(c);
+				Integer next = children.get(state).get(ch);
+				if (next == null) {
+					next = children.size();
+					children.add(new HashMap<Character, Integer>());
+					outputs.add(-1);
+					children.get(state).put(ch, next);
+				}
+				state = next;
+			}
+			if (outputs.get(state) == -1) {
+				outputs.set(state, i);
+			}
+		}
+
+		int states = children.size();
+		output = Util.Iv2s(outputs);
+		failure = new int[states];
+		dictionary = new int[states];
+		ascii = new int[states][128];
+
+		// Breadth first, so the failure links of shallower states are ready.
+		int[] queue = new int[states];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = 0;
+		dictionary[0] = -1;
+		while (head < tail) {
+			int state = queue[head++];
+			for (char c = 0; c < 128; c++) {
+				Integer child = children.get(state).get(c);
+				if (child != null) {
+					ascii[state][c] = child;
+				} else {
+					ascii[state][c] = state == 0 ? 0 : ascii[failure[state]][c];
+				}
+			}
+			for (Character c : children.get(state).keySet()) {
+				int child = children.get(state).get(c);
+				failure[child] = state == 0 ? 0 : step(failure[state], c);
+				dictionary[child] = output[failure[child]] > -1 ? failure[child] : dictionary[failure[child]];
+				queue[tail++] = child;
+			}
+		}
+	}
+
+	/**
+	 * Runs the substitutions on a text.
+	 *
+	 * @param text The text.
+	 */
+	public String substitute(String text) {
+		StringBuilder result = new StringBuilder(text.length());
+		if (!substitute(text, result)) {
+			return text;
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Runs the substitutions on a text and appends the result to a buffer. Returns whether
+	 * anything was substituted.
+	 *
+	 * @param text   The text.
+	 * @param result The buffer for the result.
+	 */
+	boolean substitute(CharSequence text, StringBuilder result) {
+		int length = text.length();
+
+		// Find the occurrences, as (pattern index, start) pairs sorted by pattern.
+		long[] found = null;
+		int count = 0;
+		int state = 0;
+		for (int i = 0; i < length; i++) {
+			state = step(state, text.charAt(i));
+			for (int s = output[state] > -1 ? state : dictionary[state]; s > -1; s = dictionary[s]) {
+				if (found == null) {
+					found = new long[16];
+				} else if (count == found.length) {
+					found = Arrays.copyOf(found, count * 2);
+				}
+				int pattern = output[s];
+				found[count++] = ((long) pattern << 32) | (i + 1 - patterns[pattern].length());
+			}
+		}
+		if (count == 0) {
+			result.append(text);
+			return false;
+		}
+		Arrays.sort(found, 0, count);
+
+		// Apply the patterns in order. A substituted region of the text is "covered", and the
+		// pattern that replaces it is stored at its start.
+		boolean[] covered = new boolean[length];
+		int[] replaced = new int[length];
+		Arrays.fill(replaced, -1);
+		View view = new View(text, covered, replaced);
+		for (int first = 0; first < count; ) {
+			int pattern = (int) (found[first] >>> 32);
+			int last = first;
+			while (last < count && (int) (found[last] >>> 32) == pattern) {
+				last++;
+			}
+			int size = patterns[pattern].length();
+
+			// The whole text, or the start of it followed by a non-word character.
+			if (view.build(found, first, last, size) && view.occurs(0) && (view.isEnd(size) || view.isNonWord(size))) {
+				view.cover(pattern, 0, size);
+			}
+
+			// Surrounded by non-word characters.
+			if (view.build(found, first, last, size)) {
+				view.replaceAll(pattern, size, true);
+			}
+
+			// The end of the text, after a non-word character.
+			if (view.build(found, first, last, size)) {
+				view.replaceAll(pattern, size, false);
+			}
+
+			first = last;
+		}
+
+		// Put the replacements in.
+		boolean changed = false;
+		for (int i = 0; i < length; i++) {
+			if (replaced[i] > -1) {
+				result.append(replacements[replaced[i]]);
+				changed = true;
+			}
+			if (!covered[i]) {
+				result.append(text.charAt(i));
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Follows the automaton from a state on a character.
+	 */
+	private int step(int state, char c) {
+		if (c < 128) {
+			return ascii[state][c];
+		}
+		while (true) {
+			Integer next = children.get(state).get(c);
+			if (next != null) {
+				return next;
+			} else if (state == 0) {
+				return 0;
+			}
+			state = failure[state];
+		}
+	}
+
+
+	private static boolean isWord(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+
+	/**
+	 * The text as the regexps of the substitutions see it: every substituted region stands for
+	 * a placeholder, which has a non-word character at each edge and word characters between.
+	 */
+	private static class View {
+
+		private CharSequence text;
+		private boolean[] covered;
+		private int[] replaced;
+
+		private char[] chars;   // The characters; a placeholder reads "<x>"
+		private int[] origin;   // Where each character comes from in the text, or -1
+		private int[] position; // Where each free character of the text is in the view
+		private int[] occurs;   // The stamp of the view where an occurrence starts
+		private int stamp = 0;
+		private int length = 0;
+
+		private View(CharSequence text, boolean[] covered, int[] replaced) {
+			this.text = text;
+			this.covered = covered;
+			this.replaced = replaced;
+			int capacity = text.length() * 3;
+			chars = new char[capacity];
+			origin = new int[capacity];
+			occurs = new int[capacity];
+			position = new int[text.length()];
+		}
+
+		/**
+		 * Rebuilds the view and marks the free occurrences of a pattern in it. Returns whether
+		 * there were any.
+		 *
+		 * @param found The occurrences.
+		 * @param first The first occurrence of the pattern.
+		 * @param last  The end of its occurrences.
+		 * @param size  The size of the pattern.
+		 */
+		private boolean build(long[] found, int first, int last, int size) {
+			boolean any = false;
+			for (int f = first; f < last && !any; f++) {
+				any = isFree((int) found[f], size);
+			}
+			if (!any) {
+				return false;
+			}
+
+			length = 0;
+			for (int i = 0; i < text.length(); i++) {
+				if (!covered[i]) {
+					position[i] = length;
+					origin[length] = i;
+					chars[length++] = text.charAt(i);
+				} else if (replaced[i] > -1) {
+					origin[length] = -1;
+					chars[length++] = '<';
+					origin[length] = -1;
+					chars[length++] = 'x';
+					origin[length] = -1;
+					chars[length++] = '>';
+				}
+			}
+
+			stamp++;
+			for (int f = first; f < last; f++) {
+				int start = (int) found[f];
+				if (isFree(start, size)) {
+					occurs[position[start]] = stamp;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Substitutes every occurrence preceded by non-word characters and either followed by
+		 * one ({@code (\W+)pattern(\W+)}) or at the end ({@code (\W+)pattern$}), choosing them
+		 * the way a regexp would: leftmost first, with the longest run of non-word characters
+		 * before it.
+		 */
+		private void replaceAll(int pattern, int size, boolean trailing) {
+			int from = 0;
+			while (from < length) {
+				int end = -1;
+				for (int i = from; i < length && end < 0; ) {
+					if (!isNonWord(i)) {
+						i++;
+						continue;
+					}
+					int run = i;
+					while (run < length && isNonWord(run)) {
+						run++;
+					}
+					for (int at = run; at > i && end < 0; at--) {
+						if (occurs(at) && (trailing ? isNonWord(at + size) : isEnd(at + size))) {
+							cover(pattern, at, size);
+							end = at + size;
+							while (trailing && end < length && isNonWord(end)) {
+								end++;
+							}
+						}
+					}
+
+					// Starting further into the run only leaves fewer places to try.
+					i = run;
+				}
+				if (end < 0) {
+					return;
+				}
+				from = end;
+			}
+		}
+
+		private void cover(int pattern, int at, int size) {
+			int start = origin[at];
+			Arrays.fill(covered, start, start + size, true);
+			replaced[start] = pattern;
+		}
+
+		private boolean occurs(int at) {
+			return at < length && occurs[at] == stamp;
+		}
+
+		private boolean isFree(int start, int size) {
+			for (int i = start; i < start + size; i++) {
+				if (covered[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private boolean isNonWord(int at) {
+			return at >= 0 && at < length && !isWord(chars[at]);
+		}
+
+		/**
+		 * Returns whether a position is at the end as far as a regexp {@code $} goes: the end,
+		 * or just before a line terminator at the end.
+		 */
+		private boolean isEnd(int at) {
+			int rest = length - at;
+			if (rest == 0) {
+				return true;
+			} else if (rest == 1) {
+				char c = chars[at];
+				if (c == '\n') {
+					return at == 0 || chars[at - 1] != '\r';
+				}
+				return c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+			}
+			return rest == 2 && chars[at] == '\r' && chars[at + 1] == '\n';
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+/**
+ * Supplies the data and runs the side effects of the tags of a {@link ReplyTemplate} while
+ * it's rendered for a user.
+ *
+ * @see ReplyTemplate#render(TagProcessor)
+ */
+public interface TagProcessor {
+
+	/**
+	 * Returns a wildcard the user's message matched ({@code <star>}), or {@code ""} if there
+	 * isn't one at that index.
+	 *
+	 * @param index The index of the wildcard, starting at 1.
+	 */
+	String star(int index);
+
+	/**
+	 * Returns a wildcard the bot's last reply matched in a {@code %Previous}
+	 * ({@code <botstar>}), or {@code ""} if there isn't one at that index.
+	 *
+	 * @param index The index of the wildcard, starting at 1.
+	 */
+	String botstar(int index);
+
+	/**
+	 * Returns one of the user's last messages ({@code <input>}).
+	 *
+	 * @param index How far back the message is, starting at 1.
+	 */
+	String input(int index);
+
+	/**
+	 * Returns one of the bot's last replies ({@code <reply>}).
+	 *
+	 * @param index How far back the reply is, starting at 1.
+	 */
+	String reply(int index);
+
+	/**
+	 * Returns the user's id ({@code <id>}).
+	 */
+	String id();
+
+	/**
+	 * Picks a random number for {@code {random}} and arrays.
+	 *
+	 * @param bound The number of choices.
+	 */
+	int random(int bound);
+
+	/**
+	 * Streams code into the bot ({@code {!...}}).
+	 *
+	 * @param code The RiveScript code.
+	 */
+	void stream(String code);
+
+	/**
+	 * Transforms text: {@code person}, {@code formal}, {@code sentence}, {@code uppercase}
+	 * or {@code lowercase}.
+	 *
+	 * @param format The transform.
+	 * @param text   The text.
+	 */
+	String transform(String format, String text);
+
+	/**
+	 * Runs a {@code <tag>}, e.g. {@code <get name>} or {@code <set name=value>}, and returns
+	 * the text that replaces it.
+	 *
+	 * @param tag The text between the brackets.
+	 */
+	String tag(String tag);
+
+	/**
+	 * Sets the user's topic ({@code {topic=...}}).
+	 *
+	 * @param topic The topic.
+	 */
+	void topic(String topic);
+
+	/**
+	 * Gets the reply to a redirect ({@code {@...}}).
+	 *
+	 * @param target The message to redirect to.
+	 * @param output Whether the result goes straight into the reply, rather than into another tag.
+	 */
+	String redirect(String target, boolean output);
+
+	/**
+	 * Calls an object macro ({@code <call>...</call>}). When the result goes straight into an
+	 * asynchronous reply, it may be a placeholder that is filled in once the object completes.
+	 *
+	 * @param call   The name of the object followed by its arguments.
+	 * @param output Whether the result goes straight into the reply, rather than into another tag.
+	 */
+	String call(String call, boolean output);
+}
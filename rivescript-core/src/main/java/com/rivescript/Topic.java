@@ -26,8 +26,6 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Vector;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * A topic class for RiveScript.
@@ -40,10 +38,17 @@ public class Topic {
 	private static boolean debug = false;
 	private HashMap<String, Trigger> triggers = new HashMap<>();        // Topics contain triggers
 	private boolean hasPrevious = false;                                // Has at least one %Previous
+	private boolean previousInTree = false;                             // Any topic in the tree has a %Previous
+	private String[] tree;                                              // Flattened inherit/include tree
 	private HashMap<String, Vector<String>> previous = new HashMap<>(); // Mapping of %Previous's to their triggers
+	private PreviousIndex previousIndex;                                // Compiled %Previous's and their triggers
 	private Vector<String> includes = new Vector<>();                   // Included topics
 	private Vector<String> inherits = new Vector<>();                   // Inherited topics
 	private String[] sorted;                                            // Sorted trigger list
+	private Trigger[] resolved;                                         // The Trigger of each sorted trigger
+	private CompiledTrigger[] compiled;                                 // Sorted triggers with their regexps
+	private TriggerMatcher matcher;                                     // Matches messages against the compiled triggers
+	private boolean dirty = true;                                       // Changed since the replies were last sorted
 
 	// Currently selected topic.
 	String name;
@@ -80,6 +85,7 @@ public class Topic {
 			// Create a new Trigger object.
 			Trigger newTrigger = new Trigger(this.name, pattern);
 			triggers.put(pattern, newTrigger);
+			dirty = true;
 		}
 
 		return triggers.get(pattern);
@@ -94,6 +100,38 @@ public class Topic {
 		return triggers.containsKey(trigger);
 	}
 
+	/**
+	 * Returns the descriptors of the topic's own {@link Trigger}s, in the same order as
+	 * {@code listTriggers(true)}.
+	 */
+	public TriggerDescriptor[] listDescriptors() {
+		TriggerDescriptor[] result = new TriggerDescriptor[triggers.size()];
+		int i = 0;
+		for (Trigger trigger : triggers.values()) {
+			result[i++] = trigger.getDescriptor();
+		}
+		return result;
+	}
+
+	/**
+	 * Returns whether the topic changed since its replies were last sorted, so
+	 * {@link TopicManager#sortReplies()} has to sort it again.
+	 */
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Marks whether the topic changed since its replies were last sorted. New triggers, includes,
+	 * inherits and {@code %Previous}'s mark it by themselves; call this after changing a
+	 * {@link Trigger} of the topic.
+	 *
+	 * @param dirty Whether the topic needs sorting.
+	 */
+	public void setDirty(boolean dirty) {
+		this.dirty = dirty;
+	}
+
 	/**
 	 * Returns a sorted list of all {@link Trigger}s. Note that the results are only accurate if
 	 * you called {@link Topic#sortTriggers(String[])} for this topic after loading new replies into it (the
@@ -145,42 +183,96 @@ public class Topic {
 		return sorted;
 	}
 
+	/**
+	 * Returns the {@link Trigger}s of the sorted list, in the same order as {@link #listTriggers()}.
+	 * Triggers from inherited or included topics are resolved to the topic that owns them.
+	 * These are only available after {@link RiveScript#sortReplies()} has been called.
+	 */
+	public Trigger[] listResolvedTriggers() {
+		if (resolved == null) {
+			System.err.println("You called listResolvedTriggers() for topic " + name + " before its replies have been sorted!");
+			return new Trigger[0];
+		}
+		return resolved;
+	}
+
+	/**
+	 * Stores the {@link Trigger}s of this topic's sort buffer.
+	 *
+	 * @param resolved The triggers, in the same order as {@link #listTriggers()}.
+	 */
+	public void setResolvedTriggers(Trigger[] resolved) {
+		this.resolved = resolved;
+	}
+
+	/**
+	 * Returns the sorted list of {@link CompiledTrigger}s, in the same order as {@link #listTriggers()}.
+	 * These are only available after {@link RiveScript#sortReplies()} has been called.
+	 */
+	public CompiledTrigger[] listCompiledTriggers() {
+		if (compiled == null) {
+			System.err.println("You called listCompiledTriggers() for topic " + name + " before its replies have been sorted!");
+			return new CompiledTrigger[0];
+		}
+		return compiled;
+	}
+
+	/**
+	 * Stores the compiled triggers for this topic's sort buffer along with their {@link TriggerMatcher}.
+	 *
+	 * @param compiled The compiled triggers, in the same order as {@link #listTriggers()}.
+	 * @param matcher  The matcher built from the compiled triggers by the {@link MatchEngine}.
+	 */
+	public void setCompiledTriggers(CompiledTrigger[] compiled, TriggerMatcher matcher) {
+		this.compiled = compiled;
+		this.matcher = matcher;
+	}
+
+	/**
+	 * Returns the {@link TriggerMatcher} over the compiled triggers, or {@code null} if the
+	 * replies haven't been sorted yet.
+	 */
+	public TriggerMatcher getMatcher() {
+		return matcher;
+	}
+
 	/**
 	 * (Re)creates the internal sort cache for this topic's {@link Trigger}s.
 	 */
 	public void sortTriggers(String[] alltrigs) {
+		TriggerDescriptor[] keys = new TriggerDescriptor[alltrigs.length];
+		for (int i = 0; i < alltrigs.length; i++) {
+			keys[i] = TriggerDescriptor.parse(alltrigs[i]);
+		}
+		sortTriggers(keys);
+	}
+
+	/**
+	 * (Re)creates the internal sort cache for this topic's {@link Trigger}s from their descriptors.
+	 *
+	 * @param keys The descriptors of the triggers, including inherited/included ones.
+	 */
+	public void sortTriggers(TriggerDescriptor[] keys) {
 		// Get our list of triggers.
 		Vector<String> sorted = new Vector<>();
 
 		// Do multiple sorts, one for each inheritence level.
-		HashMap<Integer, Vector<String>> heritage = new HashMap<>();
-		heritage.put(-1, new Vector<String>());
+		HashMap<Integer, Vector<TriggerDescriptor>> heritage = new HashMap<>();
+		heritage.put(-1, new Vector<TriggerDescriptor>());
 		int highest = -1;
-		Pattern reInherit = Pattern.compile("\\{inherits=(\\d+)\\}");
-		for (int i = 0; i < alltrigs.length; i++) {
-			int inherits = -1; // Default, when no {inherits} tag.
-
-			// Does it have an inherit level?
-			if (alltrigs[i].indexOf("{inherits=") > -1) {
-				Matcher m = reInherit.matcher(alltrigs[i]);
-				while (m.find()) {
-					inherits = Integer.parseInt(m.group(1));
-					if (inherits > highest) {
-						highest = inherits;
-					}
-					break;
-				}
+		for (int i = 0; i < keys.length; i++) {
+			int inherits = keys[i].getInherits(); // -1 when not inherited.
+			if (inherits > highest) {
+				highest = inherits;
 			}
 
-			alltrigs[i] = alltrigs[i].replaceAll("\\{inherits=\\d+\\}", "");
-
 			// Initialize this inherit group?
 			if (heritage.containsKey(inherits) == false) {
-				heritage.put(inherits, new Vector<String>());
+				heritage.put(inherits, new Vector<TriggerDescriptor>());
 			}
 
 			// Add it.
-			heritage.get(inherits).add(alltrigs[i]);
+			heritage.get(inherits).add(keys[i]);
 		}
 
 		// Move the no-{inherits} triggers to the bottom of the stack.
@@ -195,34 +287,22 @@ public class Topic {
 
 			int inherits = h;
 			say("Sorting triggers by heritage level " + inherits);
-			String[] triggers = Util.Sv2s(heritage.get(inherits));
+			Vector<TriggerDescriptor> triggers = heritage.get(inherits);
 
 			// Sort-priority maps.
-			HashMap<Integer, Vector<String>> prior = new HashMap<>();
+			HashMap<Integer, Vector<TriggerDescriptor>> prior = new HashMap<>();
 
 			// Assign each trigger to its priority level.
 			say("BEGIN sortTriggers in topic " + this.name);
-			Pattern rePrior = Pattern.compile("\\{weight=(\\d+?)\\}");
-			for (int i = 0; i < triggers.length; i++) {
-				int priority = 0;
-
-				// See if this trigger has a {weight}.
-				if (triggers[i].indexOf("{weight") > -1) {
-					// Try to match the regexp then.
-					Matcher m = rePrior.matcher(triggers[i]);
-					while (m.find() == true) {
-						priority = Integer.parseInt(m.group(1));
-					}
-				}
-
+			for (TriggerDescriptor key : triggers) {
 				// Initialize its priority group?
-				if (prior.containsKey(priority) == false) {
+				if (prior.containsKey(key.getWeight()) == false) {
 					// Create it.
-					prior.put(priority, new Vector<String>());
+					prior.put(key.getWeight(), new Vector<TriggerDescriptor>());
 				}
 
 				// Add it.
-				prior.get(priority).add(triggers[i]);
+				prior.get(key.getWeight()).add(key);
 			}
 
 			/*
@@ -235,77 +315,28 @@ public class Topic {
 				topics.
 
 				The topicTriggers in TopicManager takes this into account. All topics
-				that inherit other topics will have their local triggers prefixed
-				with a fictional {inherits} tag, which will start at {inherits=0}
-				and increment if the topic tree has other inheriting topics. So
-				we can use this tag to make sure topics that inherit things will
-				have their triggers always be on the top of the stack, from
-				inherits=0 to inherits=n.
+				that inherit other topics will have their local triggers given an
+				inheritance level on their TriggerDescriptor, which starts at 0 and
+				increments if the topic tree has other inheriting topics. The sort
+				buckets use this level to make sure topics that inherit things will
+				have their triggers always be on the top of the stack, from level 0
+				to level n, before the triggers without a level.
 			*/
 
 			// Sort the priority lists numerically from highest to lowest.
 			int[] prior_sorted = Util.sortKeysDesc(prior);
 			for (int p = 0; p < prior_sorted.length; p++) {
 				say("Sorting triggers w/ priority " + prior_sorted[p]);
-				Vector<String> p_list = prior.get(prior_sorted[p]);
-
-				/*
-					So, some of these triggers may include {inherits} tags, if
-					they came from a topic which inherits another topic. Lower
-					inherits values mean higher priority on the stack. Keep this
-					in mind when keeping track of how to sort these things.
-				*/
-
-				int highest_inherits = inherits; // highest {inherits} we've seen
+				Vector<TriggerDescriptor> p_list = prior.get(prior_sorted[p]);
 
 				// Initialize a sort bucket that will keep inheritance levels'
 				// triggers in separate places.
 				Inheritance bucket = new Inheritance();
 
 				// Loop through the triggers and sort them into their buckets.
-				for (Enumeration e = p_list.elements(); e.hasMoreElements(); ) {
-					String trigger = e.nextElement().toString();
-
-					// Count the number of whole words it has.
-					String[] words = trigger.split("[ |\\*|\\#|\\_]");
-					int wc = 0;
-					for (int w = 0; w < words.length; w++) {
-						if (words[w].length() > 0) {
-							wc++;
-						}
-					}
-
-					say("On trigger: " + trigger + " (it has " + wc + " words) - inherit level: " + inherits);
-
-					// Profile it.
-					if (trigger.indexOf("_") > -1) {
-						// It has the alpha wildcard, _.
-						if (wc > 0) {
-							bucket.addAlpha(wc, trigger);
-						} else {
-							bucket.addUnder(trigger);
-						}
-					} else if (trigger.indexOf("#") > -1) {
-						// It has the numeric wildcard, #.
-						if (wc > 0) {
-							bucket.addNumber(wc, trigger);
-						} else {
-							bucket.addPound(trigger);
-						}
-					} else if (trigger.indexOf("*") > -1) {
-						// It has the global wildcard, *.
-						if (wc > 0) {
-							bucket.addWild(wc, trigger);
-						} else {
-							bucket.addStar(trigger);
-						}
-					} else if (trigger.indexOf("[") > -1) {
-						// It has optional parts.
-						bucket.addOption(wc, trigger);
-					} else {
-						// Totally atomic.
-						bucket.addAtomic(wc, trigger);
-					}
+				for (TriggerDescriptor key : p_list) {
+					say("On trigger: " + key.getPattern() + " (it has " + key.getWords() + " words) - inherit level: " + inherits);
+					key.addTo(bucket);
 				}
 
 				// Sort each inheritence level individually.
@@ -321,6 +352,11 @@ public class Topic {
 
 		// Turn the running sort buffer into a string array and store it.
 		this.sorted = Util.Sv2s(sorted);
+
+		// The resolved and compiled triggers are stale now.
+		this.resolved = null;
+		this.compiled = null;
+		this.matcher = null;
 	}
 
 	/**
@@ -335,6 +371,7 @@ public class Topic {
 			this.previous.put(previous, new Vector<String>());
 		}
 		this.previous.get(previous).add(pattern);
+		this.dirty = true;
 	}
 
 	/**
@@ -345,6 +382,54 @@ public class Topic {
 		return this.hasPrevious;
 	}
 
+	/**
+	 * Returns the compiled {@code %Previous} patterns and their triggers, or {@code null} if the
+	 * replies haven't been sorted yet.
+	 */
+	public PreviousIndex getPreviousIndex() {
+		return previousIndex;
+	}
+
+	/**
+	 * Stores the compiled {@code %Previous} patterns and their triggers.
+	 *
+	 * @param previousIndex The index, in the same order as {@link #listPrevious()}.
+	 */
+	public void setPreviousIndex(PreviousIndex previousIndex) {
+		this.previousIndex = previousIndex;
+	}
+
+	/**
+	 * Returns whether any topic in this topic's inherit/include tree (including itself) has a
+	 * {@code %Previous} (only good after {@link RiveScript#sortReplies()} is called).
+	 */
+	public boolean hasPreviousInTree() {
+		return this.previousInTree;
+	}
+
+	/**
+	 * Returns the flattened inherit/include tree of this topic, starting with the topic itself,
+	 * as computed by {@link TopicManager#getTopicTree(String, int)} when the replies were sorted.
+	 */
+	public String[] listTopicTree() {
+		if (tree == null) {
+			System.err.println("You called listTopicTree() for topic " + name + " before its replies have been sorted!");
+			return new String[]{name};
+		}
+		return tree;
+	}
+
+	/**
+	 * Stores the flattened inherit/include tree of this topic.
+	 *
+	 * @param tree           The topics in the tree, starting with this one.
+	 * @param previousInTree Whether any topic in the tree has a {@code %Previous}.
+	 */
+	public void setTopicTree(String[] tree, boolean previousInTree) {
+		this.tree = tree;
+		this.previousInTree = previousInTree;
+	}
+
 	/**
 	 * Get a list of all the {@code %Previous} keys.
 	 */
@@ -401,6 +486,9 @@ public class Topic {
 
 		// TODO: we need to sort the triggers but ah well
 		this.previous = prev2trig;
+
+		// The compiled %Previous's are stale now.
+		this.previousIndex = null;
 	}
 
 	/**
@@ -432,6 +520,7 @@ public class Topic {
 	 */
 	public void includes(String topic) {
 		this.includes.add(topic);
+		this.dirty = true;
 	}
 
 	/**
@@ -441,6 +530,7 @@ public class Topic {
 	 */
 	public void inherits(String topic) {
 		this.inherits.add(topic);
+		this.dirty = true;
 	}
 
 	/**
@@ -22,9 +22,12 @@
 
 package com.rivescript;
 
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * A topic manager class for RiveScript.
@@ -86,39 +89,128 @@ public class TopicManager {
 	}
 
 	/**
-	 * Sorts the replies in all the topics. This will build trigger lists of
+	 * Sorts the replies in the topics that changed since the last sort (see {@link Topic#isDirty()}),
+	 * along with every topic that includes or inherits them. This will build trigger lists of
 	 * the topics (taking into account topic inheritance/includes) and sending
-	 * the final trigger list into each {@link Topic}'s individual {@link Topic#sortTriggers(String[])}
+	 * the final trigger list into each {@link Topic}'s individual {@link Topic#sortTriggers(TriggerDescriptor[])}
 	 * method.
+	 *
+	 * @return The names of the topics that were sorted.
+	 */
+	public String[] sortReplies() {
+		return sortReplies(null);
+	}
+
+	/**
+	 * Sorts the replies like {@link #sortReplies()}, sorting independent topics concurrently
+	 * on a {@link ForkJoinPool}. The results are the same as sorting them one by one.
+	 *
+	 * @param pool The pool to sort on, or {@code null} to sort on the calling thread.
+	 * @return The names of the topics that were sorted.
 	 */
-	public void sortReplies() {
-		// Get trigger lists for all the topics.
+	public String[] sortReplies(final ForkJoinPool pool) {
 		String[] topics = this.listTopics();
+
+		// Find the topics that include or inherit each topic. This creates the topics that are
+		// only referenced, so the sort below doesn't change the topic list.
+		HashMap<String, Vector<String>> dependants = new HashMap<>();
+		for (int i = 0; i < topics.length; i++) {
+			Vector<String> needs = new Vector<>();
+			needs.addAll(Arrays.asList(this.topic(topics[i]).includes()));
+			needs.addAll(Arrays.asList(this.topic(topics[i]).inherits()));
+			for (String need : needs) {
+				this.topic(need);
+				if (!dependants.containsKey(need)) {
+					dependants.put(need, new Vector<String>());
+				}
+				dependants.get(need).add(topics[i]);
+			}
+		}
+		topics = this.listTopics();
+
+		// Collect the dirty topics and, transitively, their dependants.
+		HashSet<String> affected = new HashSet<>();
+		Vector<String> queue = new Vector<>();
+		for (int i = 0; i < topics.length; i++) {
+			if (this.topic(topics[i]).isDirty() && affected.add(topics[i])) {
+				queue.add(topics[i]);
+			}
+		}
+		for (int i = 0; i < queue.size(); i++) {
+			Vector<String> users = dependants.get(queue.get(i));
+			if (users != null) {
+				for (String user : users) {
+					if (affected.add(user)) {
+						queue.add(user);
+					}
+				}
+			}
+		}
+
+		// Keep them in the order of the topic list.
+		Vector<String> sorted = new Vector<>();
+		for (int i = 0; i < topics.length; i++) {
+			if (affected.contains(topics[i])) {
+				sorted.add(topics[i]);
+			}
+		}
+		final String[] names = Util.Sv2s(sorted);
+		topics = names;
+
+		// Get trigger lists for the topics. Each topic only writes its own sort buffers.
+		new ParallelLoop() {
+			@Override
+			protected void body(int i) {
+				// Get *all* triggers for this topic (including inherited/included ones).
+				Vector<TriggerDescriptor> alltrig = topicTriggers(names[i], 0, 0, false);
+
+				// Make this topic sort using this trigger list.
+				topic(names[i]).sortTriggers(alltrig.toArray(new TriggerDescriptor[alltrig.size()]));
+
+				// Find the Trigger objects behind the sorted list, so replies don't have to.
+				topic(names[i]).setResolvedTriggers(resolveTriggers(names[i]));
+
+				// Make the topic update its %Previous buffer.
+				topic(names[i]).sortPrevious();
+			}
+		}.run(pool, names.length, 1);
+
+		// Flatten the topic trees, and note which ones have a %Previous anywhere.
 		for (int i = 0; i < topics.length; i++) {
-			// Get *all* triggers for this topic (including inherited/included ones).
-			String[] alltrig = this.topicTriggers(topics[i], 0, 0, false);
+			String[] tree = this.getTopicTree(topics[i], 0);
+			boolean previous = false;
+			for (int j = 0; j < tree.length && !previous; j++) {
+				previous = this.topic(tree[j]).hasPrevious();
+			}
+			this.topic(topics[i]).setTopicTree(tree, previous);
+			this.topic(topics[i]).setDirty(false);
+		}
 
-			// Make this topic sort using this trigger list.
-			this.topic(topics[i]).sortTriggers(alltrig);
+		return topics;
+	}
 
-			// Make the topic update its %Previous buffer.
-			this.topic(topics[i]).sortPrevious();
+	/**
+	 * Marks every topic as dirty, so the next {@link #sortReplies()} sorts them all.
+	 */
+	public void setDirty() {
+		for (String name : vTopics) {
+			topics.get(name).setDirty(true);
 		}
 	}
 
 	/**
-	 * Walks the inherit/include trees and return a list of unsorted triggers.
+	 * Walks the inherit/include trees and return the descriptors of the unsorted triggers.
 	 *
 	 * @param topic       The name of the topic to start at.
 	 * @param depth       The recursion depth limit (can't recurse more than 50 levels)
 	 * @param inheritance The current inheritance level (starts at 0)
 	 * @param inherited   Whether the topic is inherited
 	 */
-	private String[] topicTriggers(String topic, int depth, int inheritance, boolean inherited) {
+	private Vector<TriggerDescriptor> topicTriggers(String topic, int depth, int inheritance, boolean inherited) {
 		// Break if we're too deep.
 		if (depth > 50) {
 			System.err.println("Deep recursion while scanning topic inheritance (topic " + topic + " was involved)");
-			return new String[0];
+			return new Vector<>();
 		}
 
 		/*
@@ -131,23 +223,20 @@ public class TopicManager {
 				these triggers have higher matching priority than gamma's.
 
 			The inherited option is true if this is a recursive call, from a topic
-			that inherits other topics. This forces the {inherits} tag to be added to
-			the triggers, for the topic's sortTriggers() to deal with. This only applies
-			when the top topic "includes" another topic.
+			that inherits other topics. This forces an inheritance level onto the
+			triggers' descriptors, for the topic's sortTriggers() to deal with. This only
+			applies when the top topic "includes" another topic.
 		*/
 
-		// Collect an array of triggers to return.
-		Vector<String> triggers = new Vector<>();
+		// Collect the triggers to return.
+		Vector<TriggerDescriptor> triggers = new Vector<>();
 
 		// Does this topic include others?
 		String[] includes = this.topic(topic).includes();
 		if (includes.length > 0) {
 			for (int i = 0; i < includes.length; i++) {
 				// Recurse.
-				String[] recursive = this.topicTriggers(includes[i], (depth + 1), inheritance, false);
-				for (int j = 0; j < recursive.length; j++) {
-					triggers.add(recursive[j]);
-				}
+				triggers.addAll(this.topicTriggers(includes[i], (depth + 1), inheritance, false));
 			}
 		}
 
@@ -156,44 +245,49 @@ public class TopicManager {
 		if (inherits.length > 0) {
 			for (int i = 0; i < inherits.length; i++) {
 				// Recurse.
-				String[] recursive = this.topicTriggers(inherits[i], (depth + 1), (inheritance + 1), true);
-				for (int j = 0; j < recursive.length; j++) {
-					triggers.add(recursive[j]);
-				}
+				triggers.addAll(this.topicTriggers(inherits[i], (depth + 1), (inheritance + 1), true));
 			}
 		}
 
 		// Collect the triggers for *this* topic. If this topic inherits any other
 		// topics, it means that this topic's triggers have higher priority than
-		// those in any inherited topics. Enforce this with an {inherits} tag.
-		String[] localTriggers = this.topic(topic).listTriggers(true);
-		if (inherits.length > 0 || inherited) {
-			// Get the raw unsorted triggers.
-			for (int i = 0; i < localTriggers.length; i++) {
-				// Skip any trigger with a {previous} tag, these are for %Previous
-				// and don't go in the general population.
-				if (localTriggers[i].indexOf("{previous}") > -1) {
-					continue;
-				}
-
-				// Prefix it with an {inherits} tag.
-				triggers.add("{inherits=" + inheritance + "}" + localTriggers[i]);
+		// those in any inherited topics. Enforce this with an inheritance level.
+		TriggerDescriptor[] localTriggers = this.topic(topic).listDescriptors();
+		for (int i = 0; i < localTriggers.length; i++) {
+			// Skip any trigger with a {previous} tag, these are for %Previous
+			// and don't go in the general population.
+			if (localTriggers[i].getPattern().indexOf("{previous}") > -1) {
+				continue;
 			}
-		} else {
-			// No need for an inherits tag here.
-			for (int i = 0; i < localTriggers.length; i++) {
-				// Skip any trigger with a {previous} tag, these are for %Previous
-				// and don't go in the general population.
-				if (localTriggers[i].indexOf("{previous}") > -1) {
-					continue;
-				}
 
+			if (inherits.length > 0 || inherited) {
+				triggers.add(localTriggers[i].inherit(inheritance));
+			} else {
+				// No need for an inheritance level here.
 				triggers.add(localTriggers[i]);
 			}
 		}
 
-		// Return it as an array.
-		return Util.Sv2s(triggers);
+		return triggers;
+	}
+
+	/**
+	 * Returns the {@link Trigger} objects for a topic's sorted triggers. A trigger the topic
+	 * doesn't manage itself is looked up with {@link #findTriggerByInheritance(String, String, int)}.
+	 *
+	 * @param topic The name of the topic, which must be sorted already.
+	 */
+	private Trigger[] resolveTriggers(String topic) {
+		String[] sorted = this.topic(topic).listTriggers();
+		Trigger[] resolved = new Trigger[sorted.length];
+		for (int i = 0; i < sorted.length; i++) {
+			if (this.topic(topic).triggerExists(sorted[i])) {
+				resolved[i] = this.topic(topic).trigger(sorted[i]);
+			} else {
+				resolved[i] = this.findTriggerByInheritance(topic, sorted[i], 0);
+			}
+		}
+		return resolved;
 	}
 
 	/**
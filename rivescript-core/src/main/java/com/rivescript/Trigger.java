@@ -40,6 +40,7 @@ public class Trigger {
 	private Vector<String> reply = new Vector<>();     // -Reply
 	private Vector<String> condition = new Vector<>(); // *Condition
 	private boolean previous = false;
+	private TriggerDescriptor descriptor; // How the trigger sorts
 
 	/**
 	 * Creates a new trigger object.
@@ -50,6 +51,14 @@ public class Trigger {
 	public Trigger(String topic, String pattern) {
 		this.inTopic = topic; // And then it's read-only! Triggers can't be moved to other topics
 		this.pattern = pattern;
+		this.descriptor = new TriggerDescriptor(pattern);
+	}
+
+	/**
+	 * Returns the {@link TriggerDescriptor} the trigger is sorted by.
+	 */
+	public TriggerDescriptor getDescriptor() {
+		return this.descriptor;
 	}
 
 	/**
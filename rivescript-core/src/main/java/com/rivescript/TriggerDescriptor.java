@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Describes a trigger for sorting: its weight, the number of whole words it has, and its
+ * {@link Category}. Each {@link Trigger} gets one when it's parsed, and the {@link TopicManager}
+ * gives it an inheritance level when a topic inherits the trigger's topic.
+ */
+public class TriggerDescriptor {
+
+	/**
+	 * The kinds of triggers, in the order {@link Inheritance#dump(java.util.Vector)} sorts them.
+	 */
+	public enum Category {
+		ATOMIC,  // Whole words, no wildcards
+		OPTION,  // With [optional] parts
+		ALPHA,   // With _alpha_ wildcards
+		NUMBER,  // With #number# wildcards
+		WILD,    // With *star* wildcards
+		UNDER,   // With only _ in them
+		POUND,   // With only # in them
+		STAR     // With only * in them
+	}
+
+	private static final Pattern reInherit = Pattern.compile("\\{inherits=(\\d+)\\}");
+	private static final Pattern reWeight = Pattern.compile("\\{weight=(\\d+?)\\}");
+	private static final Pattern reWords = Pattern.compile("[ |\\*|\\#|\\_]");
+
+	private final String pattern;     // The trigger text, as the topic stores it
+	private final int weight;         // The {weight}, or 0
+	private final int words;          // The number of whole words
+	private final Category category;  // The sort bucket
+	private final int inherits;       // The inheritance level, or -1
+
+	/**
+	 * Creates the descriptor of a trigger.
+	 *
+	 * @param pattern The trigger text, as the topic stores it.
+	 */
+	public TriggerDescriptor(String pattern) {
+		this.pattern = pattern;
+		this.inherits = -1;
+
+		// See if this trigger has a {weight}.
+		int weight = 0;
+		if (pattern.indexOf("{weight") > -1) {
+			Matcher m = reWeight.matcher(pattern);
+			while (m.find()) {
+				weight = Integer.parseInt(m.group(1));
+			}
+		}
+		this.weight = weight;
+
+		// Count the number of whole words it has.
+		String[] parts = reWords.split(pattern);
+		int wc = 0;
+		for (int w = 0; w < parts.length; w++) {
+			if (parts[w].length() > 0) {
+				wc++;
+			}
+		}
+		this.words = wc;
+
+		// Profile it.
+		if (pattern.indexOf("_") > -1) {
+			// It has the alpha wildcard, _.
+			this.category = wc > 0 ? Category.ALPHA : Category.UNDER;
+		} else if (pattern.indexOf("#") > -1) {
+			// It has the numeric wildcard, #.
+			this.category = wc > 0 ? Category.NUMBER : Category.POUND;
+		} else if (pattern.indexOf("*") > -1) {
+			// It has the global wildcard, *.
+			this.category = wc > 0 ? Category.WILD : Category.STAR;
+		} else if (pattern.indexOf("[") > -1) {
+			// It has optional parts.
+			this.category = Category.OPTION;
+		} else {
+			// Totally atomic.
+			this.category = Category.ATOMIC;
+		}
+	}
+
+	/**
+	 * Creates a copy of a descriptor at another inheritance level.
+	 */
+	private TriggerDescriptor(TriggerDescriptor descriptor, int inherits) {
+		this.pattern = descriptor.pattern;
+		this.weight = descriptor.weight;
+		this.words = descriptor.words;
+		this.category = descriptor.category;
+		this.inherits = inherits;
+	}
+
+	/**
+	 * Parses a trigger that may start with an {@code {inherits=N}} tag, as accepted by
+	 * {@link Topic#sortTriggers(String[])}.
+	 *
+	 * @param trigger The trigger text.
+	 */
+	public static TriggerDescriptor parse(String trigger) {
+		if (trigger.indexOf("{inherits=") > -1) {
+			Matcher m = reInherit.matcher(trigger);
+			int inherits = m.find() ? Integer.parseInt(m.group(1)) : -1;
+			return new TriggerDescriptor(m.replaceAll("")).inherit(inherits);
+		}
+		return new TriggerDescriptor(trigger);
+	}
+
+	/**
+	 * Returns this descriptor at an inheritance level. Lower levels sort first, and triggers
+	 * without one ({@code -1}) sort after all of them.
+	 *
+	 * @param inherits The inheritance level.
+	 */
+	public TriggerDescriptor inherit(int inherits) {
+		return inherits == this.inherits ? this : new TriggerDescriptor(this, inherits);
+	}
+
+	/**
+	 * Returns the trigger text, as the topic stores it (including any {@code {weight}} tag).
+	 */
+	public String getPattern() {
+		return pattern;
+	}
+
+	/**
+	 * Returns the trigger's {@code {weight}}, or {@code 0}.
+	 */
+	public int getWeight() {
+		return weight;
+	}
+
+	/**
+	 * Returns the number of whole words in the trigger.
+	 */
+	public int getWords() {
+		return words;
+	}
+
+	/**
+	 * Returns the sort bucket of the trigger.
+	 */
+	public Category getCategory() {
+		return category;
+	}
+
+	/**
+	 * Returns the inheritance level, or {@code -1} if the trigger isn't inherited.
+	 */
+	public int getInherits() {
+		return inherits;
+	}
+
+	/**
+	 * Adds the trigger to its bucket.
+	 *
+	 * @param bucket The sort bucket of the trigger's weight and inheritance level.
+	 */
+	void addTo(Inheritance bucket) {
+		switch (category) {
+			case ALPHA:
+				bucket.addAlpha(words, pattern);
+				break;
+			case UNDER:
+				bucket.addUnder(pattern);
+				break;
+			case NUMBER:
+				bucket.addNumber(words, pattern);
+				break;
+			case POUND:
+				bucket.addPound(pattern);
+				break;
+			case WILD:
+				bucket.addWild(words, pattern);
+				break;
+			case STAR:
+				bucket.addStar(pattern);
+				break;
+			case OPTION:
+				bucket.addOption(words, pattern);
+				break;
+			default:
+				bucket.addAtomic(words, pattern);
+				break;
+		}
+	}
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Vector;
+import java.util.regex.Pattern;
+
+/**
+ * A lookup index over a topic's sorted {@link CompiledTrigger}s.
+ * <p>
+ * Atomic triggers (whole words, no wildcards or optionals) only ever match their own text,
+ * so they are kept in a hash map from their text to their position in the sort buffer. A
+ * message is then only tested with a regexp against the triggers that need one and that
+ * come before the exact match (if any) in the sort buffer.
+ * <p>
+ * The triggers that need a regexp are further indexed by the literal words they require: each
+ * one is posted under its rarest required word. Only the triggers posted under a word of the
+ * message, and whose other required words appear in the message too, are worth trying (along
+ * with the triggers that don't require any word, like {@code *}).
+ *
+ * @see MatchEngine#REGEXP
+ */
+public class TriggerIndex implements TriggerMatcher {
+
+	private HashMap<String, Integer> exact = new HashMap<>(); // Atomic trigger text -> first position
+	private int[] patterns;                                    // Positions of the triggers that need a regexp
+	private HashMap<String, int[]> postings = new HashMap<>(); // Rarest required word -> positions
+	private String[][] required;                               // Position -> words required by the trigger
+	private BitSet always = new BitSet();                      // Positions of triggers requiring no words
+
+	// Regexp syntax that required words can't be reliably extracted from.
+	private static final Pattern reUnsupported = Pattern.compile("[\\\\^$.|?+{}()\\[\\]]");
+
+	/**
+	 * Builds the index for a topic's sort buffer.
+	 *
+	 * @param triggers The compiled triggers, in sort order.
+	 */
+	public TriggerIndex(CompiledTrigger[] triggers) {
+		Vector<Integer> patterns = new Vector<>();
+		this.required = new String[triggers.length][];
+		HashMap<String, Integer> frequency = new HashMap<>();
+		for (int i = 0; i < triggers.length; i++) {
+			String literal = triggers[i].getLiteral();
+			if (literal == null) {
+				patterns.add(i);
+
+				// Count how many triggers require each word.
+				required[i] = requiredWords(triggers[i].getPattern());
+				for (int w = 0; w < required[i].length; w++) {
+					Integer count = frequency.get(required[i][w]);
+					frequency.put(required[i][w], count == null ? 1 : count + 1);
+				}
+			} else if (!exact.containsKey(literal)) {
+				exact.put(literal, i);
+			}
+		}
+		this.patterns = Util.Iv2s(patterns);
+
+		// Post each trigger under its rarest required word.
+		HashMap<String, Vector<Integer>> lists = new HashMap<>();
+		for (int p = 0; p < this.patterns.length; p++) {
+			int i = this.patterns[p];
+			if (required[i].length == 0) {
+				always.set(i);
+				continue;
+			}
+
+			String rarest = required[i][0];
+			for (int w = 1; w < required[i].length; w++) {
+				if (frequency.get(required[i][w]) < frequency.get(rarest)) {
+					rarest = required[i][w];
+				}
+			}
+			if (!lists.containsKey(rarest)) {
+				lists.put(rarest, new Vector<Integer>());
+			}
+			lists.get(rarest).add(i);
+		}
+		for (String word : lists.keySet()) {
+			postings.put(word, Util.Iv2s(lists.get(word)));
+		}
+	}
+
+	/**
+	 * Returns the position of the atomic trigger matching the message exactly, or -1.
+	 *
+	 * @param message The message.
+	 */
+	public int exactMatch(String message) {
+		Integer position = exact.get(message);
+		if (position == null) {
+			// A regexp's "$" also matches before a final line terminator.
+			String stripped = stripLineTerminator(message);
+			if (stripped != message) {
+				position = exact.get(stripped);
+			}
+		}
+		return position == null ? -1 : position;
+	}
+
+	/**
+	 * Returns the position of the first trigger matching the message, trying only the
+	 * {@link #candidates(String)}.
+	 *
+	 * @param message The formatted message.
+	 * @param stars   The vector the matched trigger's wildcards are added to.
+	 * @param test    Tests a single trigger against the message with its regexp.
+	 */
+	@Override
+	public int match(String message, Vector<String> stars, TriggerTest test) {
+		int[] candidates = candidates(message);
+		for (int c = 0; c < candidates.length; c++) {
+			if (test.test(candidates[c], message, stars)) {
+				return candidates[c];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the positions in the sort buffer that are worth trying against the message, in
+	 * sort order. If an atomic trigger matches exactly, it is the last candidate, preceded only
+	 * by the higher priority triggers that need a regexp.
+	 *
+	 * @param message The message.
+	 */
+	public int[] candidates(String message) {
+		int position = exactMatch(message);
+		int limit = position < 0 ? required.length : position;
+
+		// Collect the triggers whose required words all appear in the message.
+		BitSet hits = (BitSet) always.clone();
+		HashSet<String> words = messageWords(message);
+		for (String word : words) {
+			int[] posting = postings.get(word);
+			if (posting == null) {
+				continue;
+			}
+			for (int p = 0; p < posting.length && posting[p] < limit; p++) {
+				if (containsAll(words, required[posting[p]])) {
+					hits.set(posting[p]);
+				}
+			}
+		}
+		hits.clear(limit, required.length);
+
+		// Turn them into a list in sort order, ending with the exact match.
+		int[] candidates = new int[hits.cardinality() + (position < 0 ? 0 : 1)];
+		int c = 0;
+		for (int i = hits.nextSetBit(0); i >= 0; i = hits.nextSetBit(i + 1)) {
+			candidates[c++] = i;
+		}
+		if (position >= 0) {
+			candidates[c] = position;
+		}
+		return candidates;
+	}
+
+	/**
+	 * Returns the literal words that any message matching the trigger must contain as whole
+	 * words. Wildcards, optionals, alternations, arrays and tags don't require any word; a
+	 * trigger using any other regexp syntax is conservatively said to require none at all.
+	 *
+	 * @param trigger The trigger text from the sort buffer.
+	 */
+	static String[] requiredWords(String trigger) {
+		// Weight tags are removed along with the spaces around them.
+		String text = trigger.replaceAll("\\s*\\{weight=\\d+\\}\\s*", "");
+
+		// Optionals are bounded by spaces or word boundaries in the regexp, so they separate
+		// words. Alternations, arrays and tags don't, so they taint the word they touch.
+		text = text.replaceAll("\\s*\\[[^\\[\\]()]*\\]\\s*", " ");
+		text = text.replaceAll("\\([^\\[\\]()]*\\)", "\u0000");
+		text = text.replaceAll("@\\w*", "\u0000");
+		text = text.replaceAll("<[^<>]*>", "\u0000");
+		if (reUnsupported.matcher(text).find()) {
+			return new String[0];
+		}
+
+		Vector<String> words = new Vector<>();
+		String[] tokens = text.split(" ");
+		for (int i = 0; i < tokens.length; i++) {
+			if (tokens[i].matches("[a-z0-9]+") && !words.contains(tokens[i])) {
+				words.add(tokens[i]);
+			}
+		}
+		return Util.Sv2s(words);
+	}
+
+	/**
+	 * Splits a message into the set of its words (runs of lowercase letters and digits).
+	 *
+	 * @param message The message.
+	 */
+	private static HashSet<String> messageWords(String message) {
+		HashSet<String> words = new HashSet<>();
+		int start = -1;
+		for (int i = 0; i <= message.length(); i++) {
+			char c = i < message.length() ? message.charAt(i) : ' ';
+			if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+				if (start < 0) {
+					start = i;
+				}
+			} else if (start >= 0) {
+				words.add(message.substring(start, i));
+				start = -1;
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * Returns whether all the words are in the set.
+	 *
+	 * @param set   The set of words.
+	 * @param words The words to look for.
+	 */
+	private static boolean containsAll(HashSet<String> set, String[] words) {
+		for (int i = 0; i < words.length; i++) {
+			if (!set.contains(words[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Strips one line terminator from the end of the text, returning the same instance if there
+	 * was none.
+	 *
+	 * @param text The text.
+	 */
+	private static String stripLineTerminator(String text) {
+		int length = text.length();
+		if (length == 0) {
+			return text;
+		}
+		char last = text.charAt(length - 1);
+		if (last == '\n') {
+			return text.substring(0, length > 1 && text.charAt(length - 2) == '\r' ? length - 2 : length - 1);
+		} else if (last == '\r' || last == '\u0085' || last == '\u2028' || last == '\u2029') {
+			return text.substring(0, length - 1);
+		}
+		return text;
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+import java.util.Vector;
+
+/**
+ * Finds the trigger in a topic's sort buffer that matches a message.
+ * <p>
+ * A trigger matcher is built for every topic by a {@link MatchEngine} when the replies are
+ * sorted. Whatever lookup structure it uses, it must return the same trigger that trying
+ * each trigger's regexp in sort order would.
+ *
+ * @see MatchEngine
+ */
+public interface TriggerMatcher {
+
+	/**
+	 * Returns the position in the sort buffer of the first trigger matching the message, or -1
+	 * if none does.
+	 *
+	 * @param message The formatted message.
+	 * @param stars   The vector the matched trigger's wildcards are added to.
+	 * @param test    Tests a single trigger against the message with its regexp.
+	 */
+	int match(String message, Vector<String> stars, TriggerTest test);
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A trigger regexp with "holes" for the tags that can only be filled in at match time
+ * ({@code <bot>}, {@code <get>}, {@code <input>} and {@code <reply>}).
+ * <p>
+ * The template is parsed once when the replies are sorted. At match time only the hole
+ * values are looked up; they are inserted as quoted literals and the resulting
+ * {@link Pattern}s are kept in a small LRU cache keyed by the hole values.
+ */
+public class TriggerTemplate {
+
+	/**
+	 * The types of holes in a trigger template.
+	 */
+	public enum HoleType {
+		BOT, GET, INPUT, REPLY
+	}
+
+	// The number of compiled patterns to keep per template.
+	private static final int CACHE_SIZE = 16;
+
+	// Matches the tags that become holes.
+	private static final Pattern reHole = Pattern.compile("<(bot|get) (.+?)>|<(input|reply)([1-9]?)>");
+
+	private String[] fragments; // Regexp fragments around the holes (one more than there are holes)
+	private HoleType[] types;   // The type of each hole
+	private String[] names;     // The variable name for <bot> and <get> holes
+	private int[] indexes;      // The history index for <input> and <reply> holes
+	private Map<String, Pattern> cache;
+	private final ReentrantLock cacheLock = new ReentrantLock(); // Guards the cache
+
+	/**
+	 * Parses a trigger regexp into a template.
+	 *
+	 * @param regexp The trigger regexp, with all the static parts already processed.
+	 */
+	public TriggerTemplate(String regexp) {
+		Vector<String> fragments = new Vector<>();
+		Vector<HoleType> types = new Vector<>();
+		Vector<String> names = new Vector<>();
+		Vector<Integer> indexes = new Vector<>();
+
+		int last = 0;
+		Matcher m = reHole.matcher(regexp);
+		while (m.find()) {
+			fragments.add(regexp.substring(last, m.start()));
+			last = m.end();
+
+			if (m.group(1) != null) {
+				types.add(m.group(1).equals("bot") ? HoleType.BOT : HoleType.GET);
+				names.add(m.group(2));
+				indexes.add(0);
+			} else {
+				types.add(m.group(3).equals("input") ? HoleType.INPUT : HoleType.REPLY);
+				names.add(null);
+				indexes.add(m.group(4).length() > 0 ? Integer.parseInt(m.group(4)) : 1);
+			}
+		}
+		fragments.add(regexp.substring(last));
+
+		this.fragments = Util.Sv2s(fragments);
+		this.types = types.toArray(new HoleType[types.size()]);
+		this.names = names.toArray(new String[names.size()]);
+		this.indexes = Util.Iv2s(indexes);
+
+		if (this.types.length > 0) {
+			this.cache = new LinkedHashMap<String, Pattern>(CACHE_SIZE, 0.75f, true) {
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+					return size() > CACHE_SIZE;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Returns whether the template has no holes, i.e. its regexp never changes.
+	 */
+	public boolean isStatic() {
+		return this.types.length == 0;
+	}
+
+	/**
+	 * Returns the number of holes in the template.
+	 */
+	public int size() {
+		return this.types.length;
+	}
+
+	/**
+	 * Returns the type of a hole.
+	 *
+	 * @param hole The index of the hole.
+	 */
+	public HoleType getType(int hole) {
+		return this.types[hole];
+	}
+
+	/**
+	 * Returns the variable name of a {@code <bot>} or {@code <get>} hole.
+	 *
+	 * @param hole The index of the hole.
+	 */
+	public String getName(int hole) {
+		return this.names[hole];
+	}
+
+	/**
+	 * Returns the history index (1-9) of an {@code <input>} or {@code <reply>} hole.
+	 *
+	 * @param hole The index of the hole.
+	 */
+	public int getIndex(int hole) {
+		return this.indexes[hole];
+	}
+
+	/**
+	 * Fills the holes with the given values and returns the resulting regexp.
+	 *
+	 * @param values The value for each hole, inserted as quoted literals.
+	 */
+	public String fill(String[] values) {
+		StringBuilder regexp = new StringBuilder(this.fragments[0]);
+		for (int i = 0; i < this.types.length; i++) {
+			regexp.append(Pattern.quote(values[i]));
+			regexp.append(this.fragments[i + 1]);
+		}
+		return regexp.toString();
+	}
+
+	/**
+	 * Returns the anchored {@link Pattern} for the given hole values, compiling it only if it
+	 * isn't in the cache yet.
+	 *
+	 * @param values The value for each hole.
+	 */
+	public Pattern compile(String[] values) {
+		if (this.cache == null) {
+			return Pattern.compile("^" + this.fragments[0] + "$");
+		}
+
+		String key = Util.join(values, "\u0000");
+		Pattern re;
+		cacheLock.lock();
+		try {
+			re = this.cache.get(key);
+		} finally {
+			cacheLock.unlock();
+		}
+		if (re == null) {
+			re = Pattern.compile("^" + fill(values) + "$");
+			cacheLock.lock();
+			try {
+				this.cache.put(key, re);
+			} finally {
+				cacheLock.unlock();
+			}
+		}
+		return re;
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+import java.util.Vector;
+import java.util.regex.Pattern;
+
+/**
+ * Tests a single trigger of a topic's sort buffer against a message using its regexp.
+ *
+ * @see TriggerMatcher
+ */
+public interface TriggerTest {
+
+	/**
+	 * Returns whether the trigger at the given position matches the message. On a match, the
+	 * wildcards it captured are added to the stars.
+	 *
+	 * @param position The position of the trigger in the sort buffer.
+	 * @param message  The formatted message.
+	 * @param stars    The vector to add the captured wildcards to.
+	 */
+	boolean test(int position, String message, Vector<String> stars);
+
+	/**
+	 * Returns the regexp of the trigger at the given position, with the holes of a dynamic
+	 * trigger filled in for the current user.
+	 *
+	 * @param position The position of the trigger in the sort buffer.
+	 */
+	Pattern regexp(int position);
+}
@@ -27,8 +27,6 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Vector;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Utility methods.
@@ -117,7 +115,7 @@ public class Util {
 	 *
 	 * @param hash The hashmap to sort.
 	 */
-	public static int[] sortKeysDesc(HashMap<Integer, Vector<String>> hash) {
+	public static int[] sortKeysDesc(HashMap<Integer, ?> hash) {
 		// Make a vector of all the number-keys of the hash.
 		Vector<Integer> keys = new Vector<Integer>();
 
@@ -156,34 +154,15 @@ public class Util {
 	}
 
 	/**
-	 * Runs substitutions on a {@link String}.
+	 * Runs substitutions on a {@link String}. To run the same substitutions many times, build
+	 * a {@link Substituter} once instead.
 	 *
 	 * @param sorted The sorted list of substitution patterns to process.
 	 * @param hash   A hash that pairs the sorted list with the replacement texts.
 	 * @param text   The text to apply the substitutions to.
 	 */
 	public static String substitute(String[] sorted, HashMap<String, String> hash, String text) {
-		for (int i = 0; i < sorted.length; i++) {
-			String pattern = sorted[i];
-			String result = hash.get(sorted[i]);
-			String rot13 = ROT13(result);
-
-			String quotemeta = Pattern.quote(pattern);
-			text = text.replaceAll("^" + quotemeta + "$", "<rot13sub>" + rot13 + "<bus31tor>");
-			text = text.replaceAll("^" + quotemeta + "(\\W+)", "<rot13sub>" + rot13 + "<bus31tor>$1");
-			text = text.replaceAll("(\\W+)" + quotemeta + "(\\W+)", "$1<rot13sub>" + rot13 + "<bus31tor>$2");
-			text = text.replaceAll("(\\W+)" + quotemeta + "$", "$1<rot13sub>" + rot13 + "<bus31tor>");
-		}
-		if (text.indexOf("<rot13sub>") > -1) {
-			Pattern re = Pattern.compile("<rot13sub>(.+?)<bus31tor>");
-			Matcher m = re.matcher(text);
-			while (m.find()) {
-				String block = m.group(0);
-				String data = ROT13(m.group(1));
-				text = text.replace(block, data);
-			}
-		}
-		return text;
+		return new Substituter(sorted, hash).substitute(text);
 	}
 
 	/**
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The weighted random choice between the redirects and replies of a {@link Trigger}, built
+ * by {@link RiveScript#sortReplies()} from their {@code {weight=N}} tags.
+ * <p>
+ * The weights are kept as a cumulative array, so a choice is one random number and a binary
+ * search. It picks the same way as putting each choice in a bucket as many times as its
+ * weight: the redirects first, then the replies.
+ */
+public class WeightedChoice {
+
+	private final int[] choices;     // The choices that can be picked (redirects first, then replies)
+	private final long[] cumulative; // The total weight up to and including each choice
+	private final long total;        // The total weight
+
+	/**
+	 * Reads the weights of a trigger's redirects and replies.
+	 *
+	 * @param redirects The redirects.
+	 * @param replies   The replies.
+	 */
+	public WeightedChoice(String[] redirects, String[] replies) {
+		int[] choices = new int[redirects.length + replies.length];
+		long[] cumulative = new long[choices.length];
+		int count = 0;
+		long total = 0;
+		for (int i = 0; i < choices.length; i++) {
+			int weight = weight(i < redirects.length ? redirects[i] : replies[i - redirects.length]);
+			if (weight > 0) {
+				total += weight;
+				choices[count] = i;
+				cumulative[count++] = total;
+			}
+		}
+		this.choices = Arrays.copyOf(choices, count);
+		this.cumulative = Arrays.copyOf(cumulative, count);
+		this.total = total;
+	}
+
+	/**
+	 * Returns the total weight, the number of entries a bucket would have.
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * Picks a choice at random. Returns the index of a redirect, or the number of redirects
+	 * plus the index of a reply, or -1 if there's nothing to pick.
+	 *
+	 * @param rand The random number generator.
+	 */
+	public int pick(Random rand) {
+		if (total == 0) {
+			return -1;
+		}
+		long point = total <= Integer.MAX_VALUE ? rand.nextInt((int) total) : (long) (rand.nextDouble() * total);
+
+		// The first choice whose cumulative weight is past the point.
+		int low = 0;
+		int high = cumulative.length - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (cumulative[middle] > point) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+		return choices[low];
+	}
+
+	/**
+	 * Returns the weight of a redirect or reply: the number in its first {@code {weight=N}} tag,
+	 * or 1 without one. A weight of 0 counts as 1, and one that isn't a number as 0: such a
+	 * reply is never picked.
+	 *
+	 * @param text The redirect or reply.
+	 */
+	public static int weight(String text) {
+		int from = text.indexOf("{weight=");
+		if (from < 0) {
+			return 1;
+		}
+		while (from > -1) {
+			int start = from + 8;
+			int end = start;
+			while (end < text.length() && text.charAt(end) >= '0' && text.charAt(end) <= '9') {
+				end++;
+			}
+			if (end > start && end < text.length() && text.charAt(end) == '}') {
+				long weight = 0;
+				for (int i = start; i < end && weight <= Integer.MAX_VALUE; i++) {
+					weight = weight * 10 + (text.charAt(i) - '0');
+				}
+				return weight > 1 ? (int) Math.min(weight, Integer.MAX_VALUE) : 1;
+			}
+			from = text.indexOf("{weight=", from + 1);
+		}
+		return 0;
+	}
+}
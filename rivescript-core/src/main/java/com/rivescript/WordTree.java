@@ -0,0 +1,517 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.rivescript;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Vector;
+
+/**
+ * A word-level tree built from a topic's sorted triggers, in the spirit of the AIML
+ * "Graphmaster".
+ * <p>
+ * Every trigger becomes a path of edges from the root: literal words, the {@code *},
+ * {@code #} and {@code _} wildcards, and sets of words for alternations, arrays and
+ * optionals. A message is matched by walking its words down the tree, which collects every
+ * trigger whose path fits the message. These are then tried with their regexps in sort
+ * order, so the winner (and its stars) are the same as with {@link TriggerIndex}.
+ * <p>
+ * Triggers the tree can't represent (tags, wildcards inside words, other regexp syntax) are
+ * always tried, as are all triggers for a message that isn't made of single-spaced words.
+ *
+ * @see MatchEngine#WORD_TREE
+ */
+public class WordTree implements TriggerMatcher {
+
+	// The most paths a single trigger may expand into before it's left to its regexp.
+	private static final int MAX_PATHS = 64;
+
+	// Edge labels for the wildcards (these can't clash with words).
+	private static final String STAR = "<*>";
+	private static final String DIGITS = "<#>";
+	private static final String ALPHA = "<_>";
+	private static final String ZERO_STAR = "<**>";
+
+	private Node root;
+	private int nodes = 0;                       // Number of nodes, for their ids
+	private int size;                            // Number of triggers in the sort buffer
+	private BitSet unsupported = new BitSet();   // Positions of the triggers that aren't in the tree
+
+	/**
+	 * Builds the tree for a topic's sort buffer.
+	 *
+	 * @param triggers The compiled triggers, in sort order.
+	 * @param arrays   The arrays defined with {@code ! array}.
+	 */
+	public WordTree(CompiledTrigger[] triggers, HashMap<String, CompiledArray> arrays) {
+		this.root = new Node();
+		this.size = triggers.length;
+		for (int i = 0; i < triggers.length; i++) {
+			Vector<String[][]> elements = null;
+			if (!triggers[i].isDynamic()) {
+				elements = parse(triggers[i].getPattern(), arrays);
+			}
+			if (elements == null || paths(elements) > MAX_PATHS) {
+				unsupported.set(i);
+				continue;
+			}
+			insert(elements, 0, root, i);
+		}
+	}
+
+	/**
+	 * Returns the position of the first trigger matching the message, trying only the triggers
+	 * whose path in the tree fits the message.
+	 *
+	 * @param message The formatted message.
+	 * @param stars   The vector the matched trigger's wildcards are added to.
+	 * @param test    Tests a single trigger against the message with its regexp.
+	 */
+	@Override
+	public int match(String message, Vector<String> stars, TriggerTest test) {
+		BitSet candidates = new BitSet();
+		String[] words = split(message);
+		if (words == null) {
+			// Not a plain message, the words can't be trusted.
+			candidates.set(0, size);
+		} else {
+			walk(root, words, 0, new HashSet<Long>(), candidates);
+			candidates.or(unsupported);
+		}
+
+		for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+			if (test.test(i, message, stars)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Collects the triggers whose paths from a node fit the words from a given index on.
+	 *
+	 * @param node    The node to walk from.
+	 * @param words   The words of the message.
+	 * @param index   The index of the next word to match.
+	 * @param visited The (node, index) pairs already walked.
+	 * @param hits    The positions of the triggers found so far.
+	 */
+	private void walk(Node node, String[] words, int index, HashSet<Long> visited, BitSet hits) {
+		if (!visited.add((long) node.id * (words.length + 1) + index)) {
+			return;
+		}
+
+		// A lone * matches any number of words, even none.
+		if (node.zeroStar != null) {
+			for (int i = index; i <= words.length; i++) {
+				walk(node.zeroStar, words, i, visited, hits);
+			}
+		}
+
+		if (index == words.length) {
+			for (int i = 0; i < node.ends.size(); i++) {
+				hits.set(node.ends.get(i));
+			}
+			return;
+		}
+
+		String word = words[index];
+		if (node.words != null && node.words.containsKey(word)) {
+			walk(node.words.get(word), words, index + 1, visited, hits);
+		}
+		if (node.sets != null) {
+			for (WordSet set : node.sets.values()) {
+				if (set.words.contains(word)) {
+					walk(set.node, words, index + 1, visited, hits);
+				}
+			}
+		}
+		if (node.star != null) {
+			for (int i = index + 1; i <= words.length; i++) {
+				walk(node.star, words, i, visited, hits);
+			}
+		}
+		if (node.digits != null && isRange(word, '0', '9')) {
+			walk(node.digits, words, index + 1, visited, hits);
+		}
+		if (node.alpha != null && isRange(word, 'a', 'z')) {
+			walk(node.alpha, words, index + 1, visited, hits);
+		}
+	}
+
+	/**
+	 * Adds the paths of a trigger's elements to the tree.
+	 *
+	 * @param elements The trigger's elements (each one a list of alternative word sequences).
+	 * @param index    The index of the next element to add.
+	 * @param node     The node to add it under.
+	 * @param position The position of the trigger in the sort buffer.
+	 */
+	private void insert(Vector<String[][]> elements, int index, Node node, int position) {
+		if (index == elements.size()) {
+			node.ends.add(position);
+			return;
+		}
+
+		// Single word alternatives share a single edge, the others get a path each.
+		Vector<String> set = new Vector<>();
+		String[][] alternatives = elements.get(index);
+		for (int i = 0; i < alternatives.length; i++) {
+			if (alternatives[i].length == 1 && isWord(alternatives[i][0])) {
+				set.add(alternatives[i][0]);
+				continue;
+			}
+
+			Node next = node;
+			for (int w = 0; w < alternatives[i].length; w++) {
+				next = next.child(alternatives[i][w]);
+			}
+			insert(elements, index + 1, next, position);
+		}
+
+		if (set.size() == 1) {
+			insert(elements, index + 1, node.child(set.get(0)), position);
+		} else if (set.size() > 1) {
+			insert(elements, index + 1, node.set(set), position);
+		}
+	}
+
+	/**
+	 * Returns the number of paths the trigger's elements expand into.
+	 *
+	 * @param elements The trigger's elements.
+	 */
+	private static int paths(Vector<String[][]> elements) {
+		int paths = 1;
+		for (int e = 0; e < elements.size() && paths <= MAX_PATHS; e++) {
+			String[][] alternatives = elements.get(e);
+			int count = 0;
+			boolean words = false;
+			for (int i = 0; i < alternatives.length; i++) {
+				if (alternatives[i].length == 1 && isWord(alternatives[i][0])) {
+					words = true;
+				} else {
+					count++;
+				}
+			}
+			paths *= count + (words ? 1 : 0);
+		}
+		return paths;
+	}
+
+	/**
+	 * Parses a trigger into its elements, or returns {@code null} if it can't be represented in
+	 * the tree. Each element is a list of alternative sequences of words and wildcards; an
+	 * optional has an empty alternative.
+	 *
+	 * @param trigger The trigger text from the sort buffer.
+	 * @param arrays  The arrays defined with {@code ! array}.
+	 */
+	static Vector<String[][]> parse(String trigger, HashMap<String, CompiledArray> arrays) {
+		Vector<String[][]> elements = new Vector<>();
+
+		// A trigger of only * also matches the empty string.
+		if (trigger.equals("*")) {
+			elements.add(new String[][]{{ZERO_STAR}});
+			return elements;
+		}
+
+		// Weight tags are removed along with the spaces around them.
+		String text = trigger.replaceAll("\\s*\\{weight=\\d+\\}\\s*", "");
+
+		StringBuilder chunk = new StringBuilder();
+		for (int i = 0; i <= text.length(); i++) {
+			char c = i < text.length() ? text.charAt(i) : ' ';
+			if (c == ' ' || c == '[') {
+				// Spaces end a chunk, and so do optionals (they swallow the spaces around them).
+				if (chunk.length() > 0) {
+					String[][] element = parseChunk(chunk.toString(), arrays);
+					if (element == null) {
+						return null;
+					}
+					elements.add(element);
+					chunk.setLength(0);
+				}
+				if (c == '[') {
+					int end = closing(text, i, ']');
+					if (end < 0) {
+						return null;
+					}
+					String[][] element = parseAlternatives(text.substring(i + 1, end), true, arrays);
+					if (element == null) {
+						return null;
+					}
+					elements.add(element);
+					i = end;
+				}
+			} else if (c == '(') {
+				// Alternations must stand alone as a word.
+				int end = closing(text, i, ')');
+				if (chunk.length() > 0 || end < 0 || (end + 1 < text.length() && " [".indexOf(text.charAt(end + 1)) < 0)) {
+					return null;
+				}
+				String[][] element = parseAlternatives(text.substring(i + 1, end), false, arrays);
+				if (element == null) {
+					return null;
+				}
+				elements.add(element);
+				i = end;
+			} else {
+				chunk.append(c);
+			}
+		}
+		return elements;
+	}
+
+	/**
+	 * Parses the contents of an alternation or optional.
+	 *
+	 * @param contents The text between the brackets.
+	 * @param optional Whether the alternatives are optional.
+	 * @param arrays   The arrays defined with {@code ! array}.
+	 */
+	private static String[][] parseAlternatives(String contents, boolean optional, HashMap<String, CompiledArray> arrays) {
+		Vector<String[]> alternatives = new Vector<>();
+		String[] parts = contents.split("\\|", -1);
+		for (int p = 0; p < parts.length; p++) {
+			Vector<String> words = new Vector<>();
+			String[] chunks = parts[p].split(" ");
+			for (int c = 0; c < chunks.length; c++) {
+				if (chunks[c].length() == 0) {
+					continue;
+				}
+				String[][] element = parseChunk(chunks[c], arrays);
+				if (element == null) {
+					return null;
+				}
+				if (element.length == 1) {
+					words.addAll(Arrays.asList(element[0]));
+				} else if (chunks.length == 1) {
+					// A whole alternative can be an array.
+					alternatives.addAll(Arrays.asList(element));
+					words = null;
+					break;
+				} else {
+					return null;
+				}
+			}
+			if (words != null) {
+				alternatives.add(Util.Sv2s(words));
+			}
+		}
+		if (optional) {
+			alternatives.add(new String[0]);
+		}
+		return alternatives.toArray(new String[alternatives.size()][]);
+	}
+
+	/**
+	 * Parses a chunk of a trigger without spaces: a word, a wildcard or an array.
+	 *
+	 * @param chunk  The chunk of text.
+	 * @param arrays The arrays defined with {@code ! array}.
+	 */
+	private static String[][] parseChunk(String chunk, HashMap<String, CompiledArray> arrays) {
+		if (chunk.equals("*")) {
+			return new String[][]{{STAR}};
+		} else if (chunk.equals("#")) {
+			return new String[][]{{DIGITS}};
+		} else if (chunk.equals("_")) {
+			return new String[][]{{ALPHA}};
+		} else if (chunk.startsWith("@")) {
+			// Arrays are a set of words (or sequences of words).
+			CompiledArray array = arrays.get(chunk.substring(1));
+			if (!chunk.matches("@\\w+") || array == null || array.size() == 0) {
+				return null;
+			}
+			String[][] alternatives = new String[array.size()][];
+			for (int i = 0; i < alternatives.length; i++) {
+				alternatives[i] = array.get(i).split(" ");
+				for (int w = 0; w < alternatives[i].length; w++) {
+					if (!isWord(alternatives[i][w])) {
+						return null;
+					}
+				}
+			}
+			return alternatives;
+		}
+
+		// A plain word, with its escaped underscores.
+		String word = chunk.replace("\\_", "_");
+		if (chunk.replace("\\_", "").indexOf('_') > -1 || !isWord(word)) {
+			return null;
+		}
+		return new String[][]{{word}};
+	}
+
+	/**
+	 * Returns the index of the bracket closing the one at the given index, or -1 if it's not
+	 * closed or has other brackets nested inside.
+	 *
+	 * @param text    The text.
+	 * @param open    The index of the opening bracket.
+	 * @param bracket The closing bracket character.
+	 */
+	private static int closing(String text, int open, char bracket) {
+		for (int i = open + 1; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == bracket) {
+				return i;
+			} else if (c == '[' || c == ']' || c == '(' || c == ')') {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns whether a word is made only of the characters in a range, e.g. digits.
+	 *
+	 * @param word The word.
+	 * @param from The first character of the range.
+	 * @param to   The last character of the range.
+	 */
+	private static boolean isRange(String word, char from, char to) {
+		if (word.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < word.length(); i++) {
+			char c = word.charAt(i);
+			if (c < from || c > to) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether the text is a plain word that can be matched literally.
+	 *
+	 * @param text The text.
+	 */
+	private static boolean isWord(String text) {
+		return text.matches("[a-z0-9_]+");
+	}
+
+	/**
+	 * Splits a message into its words, or returns {@code null} if it isn't made of single-spaced
+	 * words of lowercase letters, digits and underscores.
+	 *
+	 * @param message The message.
+	 */
+	private static String[] split(String message) {
+		if (message.length() == 0) {
+			return new String[0];
+		}
+		Vector<String> words = new Vector<>();
+		int start = 0;
+		for (int i = 0; i <= message.length(); i++) {
+			char c = i < message.length() ? message.charAt(i) : ' ';
+			if (c == ' ') {
+				if (i == start) {
+					return null;
+				}
+				words.add(message.substring(start, i));
+				start = i + 1;
+			} else if (!((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_')) {
+				return null;
+			}
+		}
+		return Util.Sv2s(words);
+	}
+
+	/**
+	 * A node in the tree.
+	 */
+	private class Node {
+
+		private int id = nodes++;
+		private HashMap<String, Node> words;          // Literal word -> child
+		private HashMap<String, WordSet> sets;        // Alternatives (joined) -> set of words
+		private Node star;                            // * (one or more words)
+		private Node zeroStar;                        // A lone * (zero or more words)
+		private Node digits;                          // # (a number)
+		private Node alpha;                           // _ (a word of letters)
+		private Vector<Integer> ends = new Vector<>(); // Positions of the triggers ending here
+
+		/**
+		 * Returns the child for a word or wildcard, creating it if needed.
+		 *
+		 * @param word The word or wildcard label.
+		 */
+		private Node child(String word) {
+			if (word.equals(STAR)) {
+				return star == null ? (star = new Node()) : star;
+			} else if (word.equals(ZERO_STAR)) {
+				return zeroStar == null ? (zeroStar = new Node()) : zeroStar;
+			} else if (word.equals(DIGITS)) {
+				return digits == null ? (digits = new Node()) : digits;
+			} else if (word.equals(ALPHA)) {
+				return alpha == null ? (alpha = new Node()) : alpha;
+			}
+
+			if (words == null) {
+				words = new HashMap<>();
+			}
+			if (!words.containsKey(word)) {
+				words.put(word, new Node());
+			}
+			return words.get(word);
+		}
+
+		/**
+		 * Returns the child for a set of alternative words, creating it if needed.
+		 *
+		 * @param alternatives The words.
+		 */
+		private Node set(Vector<String> alternatives) {
+			String[] sorted = Util.Sv2s(alternatives);
+			Arrays.sort(sorted);
+			String key = Util.join(sorted, "|");
+
+			if (sets == null) {
+				sets = new HashMap<>();
+			}
+			if (!sets.containsKey(key)) {
+				sets.put(key, new WordSet(new HashSet<>(alternatives), new Node()));
+			}
+			return sets.get(key).node;
+		}
+	}
+
+	/**
+	 * An edge matching any word of a set.
+	 */
+	private static class WordSet {
+
+		private HashSet<String> words;
+		private Node node;
+
+		private WordSet(HashSet<String> words, Node node) {
+			this.words = words;
+			this.node = node;
+		}
+	}
+}
@@ -24,9 +24,11 @@ package com.rivescript.lang;
 
 import com.rivescript.ObjectHandler;
 import com.rivescript.ObjectMacro;
+import com.rivescript.ReplyContext;
 import com.rivescript.RiveScript;
 
-import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.util.Objects.requireNonNull;
 
@@ -43,7 +45,7 @@ import static java.util.Objects.requireNonNull;
 public class Java implements ObjectHandler {
 
 	private RiveScript parent;
-	private HashMap<String, ObjectMacro> handlers = new HashMap<>();
+	private ConcurrentHashMap<String, ObjectMacro> handlers = new ConcurrentHashMap<>();
 
 	/**
 	 * Constructs a Java {@link ObjectHandler}.
@@ -90,6 +92,40 @@ public class Java implements ObjectHandler {
 		return macro.call(this.parent, args);
 	}
 
+	/**
+	 * Handler for when a user invokes the object, with the context of the reply. Should return
+	 * the text reply from the object.
+	 *
+	 * @param name    The name of the object being called.
+	 * @param context The context of the reply.
+	 * @param args    The argument list from the tag.
+	 */
+	@Override
+	public String onCall(String name, ReplyContext context, String[] args) {
+		ObjectMacro macro = this.handlers.get(name);
+		if (macro == null) {
+			return "[ERR: Object Not Found]";
+		}
+		return macro.call(this.parent, args, context);
+	}
+
+	/**
+	 * Handler for when a user invokes the object from an asynchronous reply. Should return a
+	 * future of the text reply from the object.
+	 *
+	 * @param name    The name of the object being called.
+	 * @param context The context of the reply.
+	 * @param args    The argument list from the tag.
+	 */
+	@Override
+	public CompletableFuture<String> onCallAsync(String name, ReplyContext context, String[] args) {
+		ObjectMacro macro = this.handlers.get(name);
+		if (macro == null) {
+			return CompletableFuture.completedFuture("[ERR: Object Not Found]");
+		}
+		return macro.callAsync(this.parent, args, context);
+	}
+
 	/**
 	 * Sets a Java class to handle the {@link ObjectMacro} directly.
 	 * <p>
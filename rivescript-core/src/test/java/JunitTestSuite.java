@@ -28,15 +28,18 @@ import org.junit.runners.Suite;
  */
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+		TestAutomaton.class,
 		TestBegin.class,
 		TestBotVariables.class,
 		TestMath.class,
 		TestOptions.class,
+		TestParallelSort.class,
 		TestReplies.class,
 		TestRiveScript.class,
 		TestSubstitutions.class,
 		TestTopics.class,
 		TestTriggers.class,
+		TestWordTree.class,
 })
 public class JunitTestSuite {
 
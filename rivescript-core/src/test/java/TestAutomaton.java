@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import com.rivescript.MatchEngine;
+import com.rivescript.RiveScript;
+import org.junit.Test;
+
+/**
+ * Runs the trigger tests with the {@link MatchEngine#AUTOMATON} match engine.
+ */
+public class TestAutomaton extends TestTriggers {
+
+	public RiveScript newRiveScript(boolean debug) {
+		return new RiveScript(debug, MatchEngine.AUTOMATON);
+	}
+
+	@Test
+	public void testBacktracking() {
+		this.setUp("backtracking.rive");
+
+		StringBuilder message = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			message.append("a b c d ");
+		}
+		this.reply(message + "e", "No match.");
+		this.reply("x a y b z c w d", "Matched x, y, z and w.");
+	}
+}
@@ -39,14 +39,18 @@ public class TestBase {
 		return "undefined";
 	}
 
+	public RiveScript newRiveScript(boolean debug) {
+		return new RiveScript(debug);
+	}
+
 	public void setUp(String file) {
-		this.rs = new RiveScript();
+		this.rs = newRiveScript(false);
 		this.rs.loadFile(getAbsolutePath("fixtures/" + this.replies() + "/" + file));
 		this.rs.sortReplies();
 	}
 
 	public void setUp(String file, boolean debug) {
-		this.rs = new RiveScript(debug);
+		this.rs = newRiveScript(debug);
 		this.rs.loadFile(getAbsolutePath("fixtures/" + this.replies() + "/" + file));
 		this.rs.sortReplies();
 	}
@@ -22,6 +22,14 @@
 
 import org.junit.Test;
 
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
 /**
  * @author Noah Petherbridge
  */
@@ -50,4 +58,36 @@ public class TestMath extends TestBase {
 		this.reply("mult", "multing");
 		this.reply("show", "counter = 20");
 	}
+
+	@Test
+	public void testConcurrentCounters() throws Exception {
+		this.setUp("math.rive");
+
+		final int users = 5;
+		final int adds = 200;
+		for (int u = 0; u < users; u++) {
+			assertEquals("counter set", this.rs.reply("user" + u, "test counter"));
+		}
+
+		// Several threads add to the same users' counters; no addition may get lost.
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		Vector<Future<String>> results = new Vector<>();
+		for (int i = 0; i < users * adds; i++) {
+			final String user = "user" + (i % users);
+			results.add(executor.submit(new Callable<String>() {
+				@Override
+				public String call() {
+					return rs.reply(user, "add");
+				}
+			}));
+		}
+		for (Future<String> result : results) {
+			assertEquals("adding", result.get());
+		}
+		executor.shutdown();
+
+		for (int u = 0; u < users; u++) {
+			assertEquals("counter = " + adds, this.rs.reply("user" + u, "show"));
+		}
+	}
 }
@@ -67,4 +67,23 @@ public class TestOptions extends TestBase {
 		this.reply("test a", "First A lineSecond A lineThird A line");
 		this.reply("test b", "First B lineSecond B lineThird B line");
 	}
+
+	@Test
+	public void testUnicode() {
+		this.setUp("options.rive");
+		this.rs.stream(new String[] {
+				"+ \u00e7a va",
+				"- Bien.",
+				"",
+				"+ *",
+				"- Fallback.",
+		});
+		this.rs.sortReplies();
+
+		this.reply("\u00c7a va?", "Fallback.");
+
+		this.rs.setUnicode(true);
+		this.reply("\u00c7a va?", "Bien.");
+		this.reply("\u00e7a, va!", "Bien.");
+	}
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2016 the original author or authors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+import com.rivescript.RiveScript;
+import org.junit.Test;
+
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the topic tests with the replies sorted on a {@link ForkJoinPool}.
+ */
+public class TestParallelSort extends TestTopics {
+
+	private static final ForkJoinPool pool = new ForkJoinPool(4);
+
+	public RiveScript newRiveScript(boolean debug) {
+		RiveScript rs = new RiveScript(debug);
+		rs.setSortPool(pool);
+		return rs;
+	}
+
+	@Test
+	public void testLargeTopic() {
+		// A large topic sorts the same way on the pool as without it.
+		Vector<String> code = new Vector<>();
+		String[] words = { "hello", "*", "#", "_", "[there]", "you", "{weight=2}" };
+		for (int i = 0; i < 3000; i++) {
+			code.add("+ " + words[i % words.length] + " " + words[(i / 7) % words.length] + " " + (i % 500));
+			code.add("- Reply " + i + ".");
+		}
+		String[] lines = code.toArray(new String[code.size()]);
+
+		RiveScript sequential = new RiveScript();
+		sequential.stream(lines);
+		sequential.sortReplies();
+		this.rs = newRiveScript(false);
+		this.rs.stream(lines);
+		this.rs.sortReplies();
+
+		for (int i = 0; i < 500; i += 7) {
+			String message = "hello you " + i;
+			assertEquals(sequential.reply("localuser", message), this.rs.reply("localuser", message));
+			message = "hello 42 " + i;
+			assertEquals(sequential.reply("localuser", message), this.rs.reply("localuser", message));
+		}
+	}
+}
@@ -20,12 +20,15 @@
  * SOFTWARE.
  */
 
+import com.rivescript.SeededRandomSource;
 import org.junit.Test;
 
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
+import static org.junit.Assert.assertEquals;
+
 /**
  * @author Noah Petherbridge
  */
@@ -43,6 +46,12 @@ public class TestReplies extends TestBase {
 		this.reply("Canoe", "Canoe who?");
 		this.reply("Canoe help me with my homework?", "Haha! Canoe help me with my homework!");
 		this.reply("hello", "I don't know.");
+
+		// The %Previous matches are remembered until the next reply.
+		this.reply("Knock knock", "Who's there?");
+		this.reply("Orange", "Orange who?");
+		this.reply("Orange you glad", "Haha! Orange you glad!");
+		this.reply("Orange you glad", "I don't know.");
 	}
 
 	@Test
@@ -57,6 +66,41 @@ public class TestReplies extends TestBase {
 				"This sentence has a random word.",
 				"This sentence has a random bit.",
 		});
+		for (int i = 0; i < 20; i++) {
+			this.reply("test weighted random", new String[] {
+					"Rare.",
+					"Common.",
+					"One.",
+					"Two.",
+			});
+		}
+	}
+
+	@Test
+	public void testSeededRandom() {
+		String[] messages = { "test random response", "test random tag", "test weighted random" };
+		String[] replies = new String[30];
+
+		// Replaying a seeded bot gives the same replies.
+		for (int run = 0; run < 2; run++) {
+			this.setUp("random.rive");
+			this.rs.setRandomSource(new SeededRandomSource(42));
+			for (int i = 0; i < replies.length; i++) {
+				String reply = this.rs.reply("localuser", messages[i % messages.length]);
+				if (run == 0) {
+					replies[i] = reply;
+				} else {
+					assertEquals(replies[i], reply);
+				}
+			}
+		}
+
+		// In per-request mode, the same message always gets the same reply.
+		this.rs.setRandomSource(new SeededRandomSource(42, true));
+		String reply = this.rs.reply("localuser", "test weighted random");
+		for (int i = 0; i < 10; i++) {
+			this.reply("test weighted random", reply);
+		}
 	}
 
 	@Test
@@ -105,6 +149,10 @@ public class TestReplies extends TestBase {
 		this.reply("Am I your master?", "No.");
 		this.uservar("master", "true");
 		this.reply("Am I your master?", "Yes.");
+		this.reply("Is my name Bob?", "I do not know your name.");
+		this.uservar("name", "bob");
+		this.reply("Is my name Bob?", "Yes, it is.");
+		this.reply("Is my name Alice?", "No, it is bob.");
 	}
 
 	@Test
@@ -117,6 +165,16 @@ public class TestReplies extends TestBase {
 		this.reply("how old am I?", "You are 5.");
 	}
 
+	@Test
+	public void testTags() {
+		this.setUp("tags.rive");
+
+		this.reply("My name is noah smith", "Nice to meet you, Noah Smith.");
+		this.reply("Who am I?", "You are NOAH SMITH.");
+		this.reply("count twice", "1, 2.");
+		this.reply("bold text", "<b>text</b>");
+	}
+
 	@Test
 	public void testQuestionMark() {
 		this.setUp("question-mark.rive");
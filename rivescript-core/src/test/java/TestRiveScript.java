@@ -20,8 +20,25 @@
  * SOFTWARE.
  */
 
+import com.rivescript.Brain;
+import com.rivescript.ObjectMacro;
+import com.rivescript.ReplyContext;
+import com.rivescript.RiveScript;
 import org.junit.Test;
 
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 /**
  * @author Noah Petherbridge
  */
@@ -57,4 +74,379 @@ public class TestRiveScript extends TestBase {
 		this.reply("get global test", "hello test!");
 		this.reply("get bad global test", "Wildcard \"undefined\"!");
 	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testCurrentUser() {
+		this.setUp("empty-star-redirect.rive");
+		this.rs.setSubroutine("whoami", (rivescript, args) -> rivescript.currentUser());
+		this.rs.stream(new String[] {
+				"+ who am i",
+				"- You are <call>whoami</call>.",
+		});
+		this.rs.sortReplies();
+
+		// Only object macros see the current user.
+		this.reply("who am i", "You are localuser.");
+		assertEquals(null, this.rs.currentUser());
+	}
+
+	@Test
+	public void testUservarsSnapshot() {
+		this.setUp("empty-vars-redirect.rive");
+		this.reply("set test name test", "hello test!");
+
+		// The vars are a copy, which the next replies don't change.
+		HashMap<String, String> vars = this.rs.getUservars("localuser");
+		vars.put("test_name", "changed");
+		assertEquals("test", this.rs.getUservar("localuser", "test_name"));
+		this.reply("set test name newtest", "Wildcard \"newtest\"!");
+		assertEquals("changed", vars.get("test_name"));
+	}
+
+	@Test
+	public void testBrainSnapshot() throws Exception {
+		this.setUp("empty-star-redirect.rive");
+
+		// Streamed replies are only used once they're sorted.
+		this.rs.stream(new String[] {
+				"+ test",
+				"- goodbye",
+				"+ new trigger",
+				"- new reply",
+		});
+		this.reply("test", "hello");
+		this.reply("new trigger", "Wildcard \"new trigger\"!");
+		this.rs.sortReplies();
+		this.reply("new trigger", "new reply");
+
+		// Replies keep working while more replies are loaded and sorted.
+		Thread loader = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < 50; i++) {
+					rs.stream(new String[] { "+ loaded " + i, "- Loaded " + i + "." });
+					rs.sortReplies();
+				}
+			}
+		};
+		loader.start();
+		while (loader.isAlive()) {
+			this.reply("new trigger", "new reply");
+		}
+		loader.join();
+		this.reply("loaded 49", "Loaded 49.");
+	}
+
+	@Test
+	public void testCompiledBrain() {
+		this.setUp("empty-vars-redirect.rive");
+		Brain brain = this.rs.compile();
+
+		// Interpreters created from the brain share the replies and the bot variables...
+		RiveScript first = new RiveScript(brain);
+		RiveScript second = new RiveScript(brain);
+		assertEquals("hello test!", first.reply("localuser", "get global test"));
+
+		// ...but not the users.
+		assertEquals("hello test!", first.reply("localuser", "set test name test"));
+		assertEquals("undefined", second.reply("localuser", "test without redirect"));
+		assertEquals("test", first.getUservar("localuser", "test_name"));
+
+		// The brain is read-only.
+		try {
+			brain.getArrays().put("colors", null);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// Expected.
+		}
+		assertFalse(second.stream("+ new trigger\n- new reply"));
+		second.sortReplies();
+		assertEquals("Wildcard \"new trigger\"!", second.reply("localuser", "new trigger"));
+	}
+
+	@Test(timeout = 10000)
+	public void testSetBrain() throws Exception {
+		RiveScript builder = new RiveScript();
+		builder.stream(new String[] {
+				"! var version = 1",
+				"+ hello",
+				"- Hello, <get name>.",
+				"+ version",
+				"- <bot version>",
+		});
+		final Brain first = builder.compile();
+		RiveScript edited = new RiveScript();
+		edited.stream(new String[] {
+				"! var version = 2",
+				"+ hello",
+				"- Hi, <get name>.",
+				"+ version",
+				"- <bot version>",
+		});
+		final Brain second = edited.compile();
+
+		// The brain can be replaced while replying, and the users stay.
+		final RiveScript reader = new RiveScript(first);
+		reader.setUservar("localuser", "name", "alice");
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<?> replies = executor.submit(() -> {
+			for (int i = 0; i < 200; i++) {
+				String reply = reader.reply("localuser", "hello");
+				assertTrue(reply, reply.equals("Hello, alice.") || reply.equals("Hi, alice."));
+			}
+		});
+		for (int i = 0; i < 50; i++) {
+			assertTrue(reader.setBrain(i % 2 == 0 ? second : first));
+		}
+		replies.get();
+		executor.shutdown();
+
+		assertTrue(reader.setBrain(second));
+		assertEquals("Hi, alice.", reader.reply("localuser", "hello"));
+		assertEquals("2", reader.reply("localuser", "version"));
+		assertEquals("alice", reader.getUservar("localuser", "name"));
+
+		// An interpreter that sorts its own replies keeps them.
+		assertFalse(builder.setBrain(first));
+	}
+
+	@Test
+	public void testReplyAsync() throws Exception {
+		this.setUp("empty-star-redirect.rive");
+		final CompletableFuture<String> weather = new CompletableFuture<>();
+		this.rs.setSubroutine("weather", new ObjectMacro() {
+			@Override
+			public String call(RiveScript rivescript, String[] args) {
+				return "sunny";
+			}
+
+			@Override
+			public CompletableFuture<String> callAsync(RiveScript rivescript, String[] args, ReplyContext context) {
+				return weather;
+			}
+		});
+		this.rs.setSubroutine("echo", (rivescript, args) -> String.join(" ", args));
+		this.rs.stream(new String[] {
+				"+ weather",
+				"- It is <call>weather</call> in <call>echo <id></call>.",
+				"+ what did you say",
+				"- I said: <reply>",
+		});
+		this.rs.sortReplies();
+
+		// The reply completes once the object macro does.
+		CompletableFuture<String> reply = this.rs.replyAsync("localuser", "weather");
+		Thread.sleep(50);
+		assertFalse(reply.isDone());
+		weather.complete("rainy");
+		assertEquals("It is rainy in localuser.", reply.get());
+		assertTrue(reply.isDone());
+		this.reply("what did you say", "I said: it is rainy in localuser");
+
+		// Synchronous replies call the object macros directly.
+		this.reply("weather", "It is sunny in localuser.");
+		assertEquals("I said: it is sunny in localuser", this.rs.replyAsync("localuser", "what did you say").get());
+	}
+
+	@Test
+	public void testReplyAsyncOrder() throws Exception {
+		this.setUp("empty-star-redirect.rive");
+		final CompletableFuture<String> weather = new CompletableFuture<>();
+		this.rs.setSubroutine("weather", new ObjectMacro() {
+			@Override
+			public String call(RiveScript rivescript, String[] args) {
+				return "sunny";
+			}
+
+			@Override
+			public CompletableFuture<String> callAsync(RiveScript rivescript, String[] args, ReplyContext context) {
+				return weather;
+			}
+		});
+		this.rs.stream(new String[] {
+				"+ weather",
+				"- It is <call>weather</call>.",
+				"+ what did you say",
+				"- I said: <reply>",
+		});
+		this.rs.sortReplies();
+
+		// The second message waits for the first reply, and sees it in the history.
+		CompletableFuture<String> first = this.rs.replyAsync("localuser", "weather");
+		CompletableFuture<String> second = this.rs.replyAsync("localuser", "what did you say");
+		CompletableFuture<String> other = this.rs.replyAsync("otheruser", "what did you say");
+		assertEquals("I said: undefined", other.get());
+		Thread.sleep(50);
+		assertFalse(second.isDone());
+		weather.complete("rainy");
+		assertEquals("It is rainy.", first.get());
+		assertEquals("I said: it is rainy", second.get());
+	}
+
+	@Test
+	public void testReplyAsyncFailingMacros() throws Exception {
+		this.setUp("empty-star-redirect.rive");
+		final CompletableFuture<String> failing = new CompletableFuture<>();
+		final CompletableFuture<String> nothing = new CompletableFuture<>();
+		this.rs.setSubroutine("fail", new ObjectMacro() {
+			@Override
+			public String call(RiveScript rivescript, String[] args) {
+				throw new IllegalStateException("offline");
+			}
+
+			@Override
+			public CompletableFuture<String> callAsync(RiveScript rivescript, String[] args, ReplyContext context) {
+				return failing;
+			}
+		});
+		this.rs.setSubroutine("nothing", new ObjectMacro() {
+			@Override
+			public String call(RiveScript rivescript, String[] args) {
+				return null;
+			}
+
+			@Override
+			public CompletableFuture<String> callAsync(RiveScript rivescript, String[] args, ReplyContext context) {
+				return nothing;
+			}
+		});
+		this.rs.stream(new String[] {
+				"+ weather",
+				"- It is <call>fail</call>.",
+				"+ news",
+				"- No news<call>nothing</call>.",
+		});
+		this.rs.sortReplies();
+
+		// A failing macro adds the error text, and a null one adds nothing.
+		CompletableFuture<String> weather = this.rs.replyAsync("localuser", "weather");
+		CompletableFuture<String> news = this.rs.replyAsync("localuser", "news");
+		failing.completeExceptionally(new IllegalStateException("offline"));
+		nothing.complete(null);
+		assertEquals("It is [ERR: IllegalStateException: offline].", weather.get());
+		assertEquals("No news.", news.get());
+
+		// The same as in a synchronous reply.
+		this.reply("weather", "It is [ERR: IllegalStateException: offline].");
+		this.reply("news", "No news.");
+	}
+
+	@Test(timeout = 10000)
+	public void testStreamWhileReplying() throws Exception {
+		this.setUp("empty-star-redirect.rive");
+		this.rs.stream(new String[] {
+				"+ learn *",
+				"- {!! var learned = <star>}Learning.",
+				"+ what did you learn",
+				"- <bot learned>",
+		});
+		this.rs.sortReplies();
+
+		// One thread streams and sorts new triggers, while the others reply and stream some more.
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		Future<?> builder = executor.submit(() -> {
+			for (int i = 0; i < 50; i++) {
+				assertTrue(rs.stream("+ trigger " + i + "\n- Reply " + i + "."));
+				rs.sortReplies();
+			}
+		});
+		Future<?> alice = executor.submit(() -> {
+			for (int i = 0; i < 50; i++) {
+				assertEquals("Learning.", rs.reply("alice", "learn word " + i));
+			}
+		});
+		Future<?> bob = executor.submit(() -> {
+			for (int i = 0; i < 200; i++) {
+				assertEquals("Wildcard \"hello\"!", rs.reply("bob", "hello"));
+			}
+		});
+		builder.get();
+		alice.get();
+		bob.get();
+		executor.shutdown();
+
+		// Everything streamed is in the next sort.
+		this.rs.sortReplies();
+		this.reply("trigger 49", "Reply 49.");
+		this.reply("what did you learn", "word 49");
+	}
+
+	@Test
+	public void testReplyContext() {
+		this.setUp("empty-star-redirect.rive");
+		this.rs.setSubroutine("whoami", new ObjectMacro() {
+			@Override
+			public String call(RiveScript rivescript, String[] args) {
+				return "nobody";
+			}
+
+			@Override
+			public String call(RiveScript rivescript, String[] args, ReplyContext context) {
+				return context.getUser() + " matched " + context.getMatch();
+			}
+		});
+		this.rs.stream(new String[] {
+				"+ who am i *",
+				"- You are <call>whoami</call>.",
+				"+ who are you",
+				"@ who am i <id>",
+		});
+		this.rs.sortReplies();
+
+		// The context comes back with the reply and what it matched.
+		ReplyContext context = this.rs.replyWithContext("localuser", "who am i really");
+		assertEquals("You are localuser matched who am i *.", context.getReply());
+		assertEquals("localuser", context.getUser());
+		assertEquals("who am i *", context.getMatch());
+		assertArrayEquals(new String[] {"really"}, context.getStars());
+		assertEquals(0, context.getDepth());
+		assertTrue(context.getElapsedNanos() >= 0);
+
+		// After a redirect, it has the trigger the redirect matched.
+		context = this.rs.replyWithContext("localuser", "who are you");
+		assertEquals("who am i *", context.getMatch());
+		assertArrayEquals(new String[] {"localuser"}, context.getStars());
+		assertEquals(1, context.getDepth());
+		assertEquals(context.getMatch(), this.rs.lastMatch("localuser"));
+	}
+
+	@Test(timeout = 10000)
+	public void testRepliesInOrderWhileMacroRuns() throws Exception {
+		this.setUp("empty-star-redirect.rive");
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch finish = new CountDownLatch(1);
+		this.rs.setSubroutine("slow", (rivescript, args) -> {
+			started.countDown();
+			try {
+				finish.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			return "done";
+		});
+		this.rs.stream(new String[] {
+				"+ slow",
+				"- <call>slow</call>",
+				"+ what did you say",
+				"- I said: <reply>",
+		});
+		this.rs.sortReplies();
+
+		// The user's next message waits for the macro of the first one.
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		Future<String> first = executor.submit(() -> rs.reply("localuser", "slow"));
+		started.await();
+		Future<String> second = executor.submit(() -> rs.reply("localuser", "what did you say"));
+
+		// Other users aren't held up.
+		assertEquals("Wildcard \"hello\"!", rs.reply("otheruser", "hello"));
+		Thread.sleep(50);
+		assertFalse(second.isDone());
+
+		finish.countDown();
+		assertEquals("done", first.get());
+		assertEquals("I said: done", second.get());
+		executor.shutdown();
+	}
 }
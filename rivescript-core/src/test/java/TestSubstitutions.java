@@ -44,6 +44,7 @@ public class TestSubstitutions extends TestBase {
 		this.reply("whats up?", "Not much.");
 		this.reply("what's up?", "Not much.");
 		this.reply("What is up?", "Not much.");
+		this.reply("how r u?", "Great, you?");
 	}
 
 	@Test
@@ -57,5 +58,9 @@ public class TestSubstitutions extends TestBase {
 
 		this.reply("say I am cool", "you are cool");
 		this.reply("say You are dumb", "I am dumb");
+		this.reply("say I am sure you are right", "you are sure I am right");
+
+		this.rs.setPersonSubstitution("my", "your");
+		this.reply("say I am my own boss", "you are your own boss");
 	}
 }
@@ -99,4 +99,56 @@ public class TestTopics extends TestBase {
 		this.reply("Name a Debian distro.", RS_ERR_MATCH);
 		this.reply("Say stuff.", RS_ERR_MATCH);
 	}
+
+	@Test
+	public void testStreamedTopics() {
+		this.setUp("inheritance.rive");
+
+		// Patch one topic; the topics that include or inherit it see the change.
+		this.rs.stream(new String[] {
+				"> topic colors",
+				"+ what color is the moon",
+				"- White.",
+				"< topic",
+				"> topic linux",
+				"+ name a debian distro",
+				"- Debian.",
+				"< topic",
+		});
+		this.rs.sortReplies();
+
+		this.uservar("topic", "stuff");
+		this.reply("What color is the moon?", "White.");
+		this.reply("Name a Debian distro.", new String[] {"Ubuntu.", "Debian."});
+
+		this.uservar("topic", "evenmore");
+		this.reply("What color is the moon?", "White.");
+		this.reply("What color is grass?", "Blue, sometimes.");
+
+		this.uservar("topic", "linux");
+		this.reply("What color is the moon?", "ERR: No Reply Matched");
+	}
+
+	@Test
+	public void testMissingRandomTopic() {
+		String RS_ERR_MATCH = "ERR: No Reply Matched";
+
+		// All the triggers are in another topic.
+		this.rs = newRiveScript(false);
+		this.rs.stream("> topic other\n+ hi\n- there\n< topic");
+		this.rs.sortReplies();
+		this.reply("hi", RS_ERR_MATCH);
+
+		// Only a BEGIN block.
+		this.rs = newRiveScript(false);
+		this.rs.stream("> begin\n+ request\n- {ok}\n< begin");
+		this.rs.sortReplies();
+		this.reply("hi", RS_ERR_MATCH);
+
+		// Only substitutions.
+		this.rs = newRiveScript(false);
+		this.rs.stream("! sub hello = hi");
+		this.rs.sortReplies();
+		this.reply("hello", RS_ERR_MATCH);
+	}
 }
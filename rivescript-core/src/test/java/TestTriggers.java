@@ -20,8 +20,15 @@
  * SOFTWARE.
  */
 
+import com.rivescript.CompiledArray;
+import com.rivescript.CompiledTrigger;
+import com.rivescript.MatchEngine;
+import com.rivescript.RiveScript;
+import com.rivescript.TriggerMatcher;
 import org.junit.Test;
 
+import java.util.HashMap;
+
 /**
  * @author Noah Petherbridge
  */
@@ -94,6 +101,29 @@ public class TestTriggers extends TestBase {
 		this.reply("What color was my red shirt?", "It was red.");
 		this.reply("I have a blue car.", "Tell me more about your car.");
 		this.reply("I have a cyan car.", "ERR: No Reply Matched");
+		this.reply("Pick a color", new String[] {
+				"How about red?",
+				"How about blue?",
+				"How about green?",
+				"How about yellow?",
+				"How about white?",
+				"How about dark blue?",
+				"How about light blue?",
+		});
+	}
+
+	@Test
+	public void testDynamicTriggers() {
+		this.setUp("dynamic.rive");
+
+		this.reply("My name is Aiden", "What a coincidence! That's my name too!");
+		this.reply("My name is Bob", "Nice to meet you, Bob.");
+		this.reply("Bob", "That's your name.");
+		this.reply("My name is Alice", "Nice to meet you, Alice.");
+		this.reply("Alice", "That's your name.");
+		this.reply("Bob", "ERR: No Reply Matched");
+		this.reply("Hello bot", "Hello human.");
+		this.reply("Hello human", "Why are you repeating me?");
 	}
 
 	@Test
@@ -104,5 +134,82 @@ public class TestTriggers extends TestBase {
 		this.reply("Hello or something.", "Hi there!");
 		this.reply("Can you run a Google search for Java?", "Sure!");
 		this.reply("Can you run a Google search for Java or something?", "Or something. Sure!");
+		this.reply("Hello bot", "Hi there!");
+		this.reply("Goodbye bot", "Goodbye human.");
+	}
+
+	@Test
+	public void testIndexedTriggers() {
+		String[] code = new String[] {
+				"! array colors = red green blue",
+				"+ what is the weather *{weight=10}",
+				"- The weather <star>.",
+				"+ what is the weather today",
+				"- Sunny.",
+				"+ what is the time",
+				"- Noon.",
+				"+ what is the date",
+				"- Monday.",
+				"+ what is the name of the bot",
+				"- Bot.",
+				"+ how [much] does the rocket cost",
+				"- A lot.",
+				"+ what is the rocket *",
+				"- The rocket <star>.",
+				"+ what is the [big] rocket",
+				"- A rocket.",
+				"+ i like @colors cars",
+				"- Me too.",
+				"+ what is the *",
+				"- I don't know the <star>.",
+				"+ *",
+				"- Anything.",
+		};
+		String[] messages = new String[] {
+				"what is the weather today",
+				"what is the weather tomorrow",
+				"what is the time",
+				"how does the rocket cost",
+				"how much does the rocket cost",
+				"how many does the rocket cost",
+				"what is the big rocket",
+				"what is the rocket",
+				"what is the rocket for",
+				"i like green cars",
+				"i like pink cars",
+				"what is the color",
+				"the weather",
+		};
+
+		// The index only tries the triggers posted under the rarest word of the message, and
+		// must find the same reply as trying every trigger in order.
+		this.rs = newRiveScript(false);
+		this.rs.stream(code);
+		this.rs.sortReplies();
+		RiveScript scan = new RiveScript(false, new MatchEngine() {
+			@Override
+			public TriggerMatcher compile(CompiledTrigger[] triggers, HashMap<String, CompiledArray> arrays) {
+				return (message, stars, test) -> {
+					for (int i = 0; i < triggers.length; i++) {
+						if (test.test(i, message, stars)) {
+							return i;
+						}
+					}
+					return -1;
+				};
+			}
+		});
+		scan.stream(code);
+		scan.sortReplies();
+		for (String message : messages) {
+			this.reply(message, scan.reply("localuser", message));
+		}
+
+		this.reply("what is the weather today", "The weather today.");
+		this.reply("how does the rocket cost", "A lot.");
+		this.reply("what is the big rocket", "A rocket.");
+		this.reply("what is the rocket for", "The rocket for.");
+		this.reply("i like blue cars", "Me too.");
+		this.reply("i like pink cars", "Anything.");
 	}
 }